@@ -0,0 +1,22 @@
+#!/bin/sh
+# Builds the server with Spring AOT processing, records the classes it loads
+# while starting and prewarming in a class data sharing archive, and starts
+# it from the archive. The archive must be created by the same JVM that runs
+# the server. JVM options (e.g., -Dt4v.prewarm.ontologies=...) are taken from
+# JAVA_OPTS, server arguments from the command line.
+set -e
+
+mvn -P aot clean package
+
+# Classes in nested jars or directories cannot be archived, so the jar is
+# run extracted, with the application classes in a jar of their own
+mkdir -p target/app
+(cd target/app && jar -xf ../t4v-server.jar)
+jar -cf target/app/application.jar -C target/app/BOOT-INF/classes .
+CP="target/app/application.jar:$(ls target/app/BOOT-INF/lib/*.jar | tr '\n' ':')"
+
+java $JAVA_OPTS -XX:ArchiveClassesAtExit=target/app/t4v.jsa -Dspring.aot.enabled=true -Dt4v.prewarm.exit=true \
+    -cp "$CP" se.liu.semweb.t4v.Server --server.port=0
+
+exec java $JAVA_OPTS -XX:SharedArchiveFile=target/app/t4v.jsa -Dspring.aot.enabled=true \
+    -cp "$CP" se.liu.semweb.t4v.Server "$@"
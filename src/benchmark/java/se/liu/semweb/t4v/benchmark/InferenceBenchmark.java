@@ -0,0 +1,76 @@
+package se.liu.semweb.t4v.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jena.rdf.model.Model;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.liu.semweb.t4v.InferenceEngine;
+import se.liu.semweb.t4v.SchemaCache;
+
+/**
+ * Benchmarks of the class inference of {@code /api/types} over synthetic data:
+ * inferring the classes of one target, and preparing a schema. Schemas without
+ * restrictions are answered from their type closure, others by the reasoner.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InferenceBenchmark {
+    @Param({ "100" })
+    public int classes;
+
+    @Param({ "0", "2" })
+    public int restrictions;
+
+    @Param({ "4" })
+    public int depth;
+
+    @Param({ "1000" })
+    public int individuals;
+
+    @Param({ "full", "goal" })
+    public String mode;
+
+    private Model schema;
+    private Model data;
+    private SchemaCache.Entry entry;
+    private int target = 0;
+
+    @Setup
+    public void setup() {
+        schema = Synthetic.ontology(classes, restrictions, depth);
+        data = Synthetic.data(schema, individuals);
+        entry = SchemaCache.prepare(schema);
+    }
+
+    /**
+     * Inferring the classes of a target, a different one each time.
+     */
+    @Benchmark
+    public Object types() {
+        target = (target + 1) % individuals;
+        return InferenceEngine.getInferredClasses(data, entry, Synthetic.individual(target), mode);
+    }
+
+    /**
+     * Reasoning over a schema and binding a reasoner to it.
+     */
+    @Benchmark
+    public Object prepare() {
+        return SchemaCache.prepare(schema);
+    }
+}
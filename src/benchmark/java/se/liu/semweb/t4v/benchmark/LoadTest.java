@@ -0,0 +1,431 @@
+package se.liu.semweb.t4v.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import se.liu.semweb.t4v.Server;
+
+/**
+ * Drives the server with a mix of requests at a number of concurrency levels,
+ * and reports the throughput, latency percentiles and errors of each kind of
+ * request, and the heap usage of the server.
+ *
+ * The ontologies, schemas and data are generated (see {@link Synthetic}) and
+ * served by a local HTTP stand-in, so URLs given to the server never leave
+ * the machine. Unless {@code loadtest.target} is set, the server is started in
+ * the same JVM (which then shares the CPUs with the load generator).
+ *
+ * Configured with system properties:
+ *
+ * <ul>
+ * <li>{@code loadtest.target}: the URL of a running server</li>
+ * <li>{@code loadtest.concurrency}: comma-separated concurrency levels, each
+ * run in turn (default {@code 1,4,16})</li>
+ * <li>{@code loadtest.rate}: requests per second, spread over the clients, or
+ * 0 for each client to send its next request as soon as it has a response
+ * (default 0)</li>
+ * <li>{@code loadtest.warmup} and {@code loadtest.duration}: seconds of
+ * warmup (not reported) and measurement per level (default 10 and 30)</li>
+ * <li>{@code loadtest.profile}: the weights of the kinds of requests (default
+ * {@code types=4,typesUrl=2,batch=1,owl2shacl=1,owl2shaclCached=2})</li>
+ * <li>{@code loadtest.classes}, {@code loadtest.restrictions},
+ * {@code loadtest.depth} and {@code loadtest.individuals}: the size of the
+ * generated ontology and data (default 100, 2, 4 and 1000)</li>
+ * </ul>
+ */
+public class LoadTest {
+    private static final int[] concurrency = parseLevels(System.getProperty("loadtest.concurrency", "1,4,16"));
+    private static final double rate = Double.parseDouble(System.getProperty("loadtest.rate", "0"));
+    private static final int warmup = Integer.getInteger("loadtest.warmup", 10);
+    private static final int duration = Integer.getInteger("loadtest.duration", 30);
+    private static final String profile = System.getProperty("loadtest.profile",
+            "types=4,typesUrl=2,batch=1,owl2shacl=1,owl2shaclCached=2");
+    private static final int classes = Integer.getInteger("loadtest.classes", 100);
+    private static final int restrictions = Integer.getInteger("loadtest.restrictions", 2);
+    private static final int depth = Integer.getInteger("loadtest.depth", 4);
+    private static final int individuals = Integer.getInteger("loadtest.individuals", 1000);
+
+    // Distinct ontology URLs of owl2shaclCached requests
+    private static final int cachedOntologies = 8;
+    private static final int batchSize = 20;
+
+    /**
+     * The kinds of requests.
+     */
+    enum Kind {
+        /** /api/types with the schema and data in the request */
+        types,
+        /** /api/types with the schema and data as URLs of the stand-in */
+        typesUrl,
+        /** /api/types/batch with the schema and data in the request */
+        batch,
+        /** /api/owl2shacl of an ontology URL that has not been converted */
+        owl2shacl,
+        /** /api/owl2shacl of one of a few ontology URLs, mostly cached */
+        owl2shaclCached
+    }
+
+    public static void main(String[] args) throws Exception {
+        Model ontology = Synthetic.ontology(classes, restrictions, depth);
+        Model data = Synthetic.data(ontology, individuals);
+        Fixture fixture = new Fixture(ontology, data);
+
+        HttpServer standIn = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        standIn.setExecutor(Executors.newCachedThreadPool());
+        standIn.createContext("/ontology/", exchange -> serve(exchange, fixture.ontology));
+        standIn.createContext("/data.ttl", exchange -> serve(exchange, fixture.data));
+        standIn.start();
+        fixture.standIn = "http://localhost:" + standIn.getAddress().getPort();
+
+        String target = System.getProperty("loadtest.target");
+        ConfigurableApplicationContext context = null;
+        if (target == null) {
+            context = SpringApplication.run(Server.class, "--server.port=0", "--logging.level.root=WARN");
+            target = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+        }
+        fixture.target = target;
+
+        Map<Kind, Integer> weights = parseProfile(profile);
+        System.out.printf("Target %s, %d classes, %d restrictions per class, depth %d, %d individuals%n", target,
+                classes, restrictions, depth, individuals);
+        System.out.printf("Profile %s, %s%n", weights,
+                rate > 0 ? rate + " requests/s" : "closed loop");
+        try {
+            for (int clients : concurrency) {
+                run(fixture, weights, clients, context != null);
+            }
+        } finally {
+            standIn.stop(0);
+            if (context != null) {
+                context.close();
+            }
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Run one concurrency level: a warmup, then the measurement.
+     */
+    private static void run(Fixture fixture, Map<Kind, Integer> weights, int clients, boolean inProcess)
+            throws InterruptedException {
+        Map<Kind, Recorder> recorders = new LinkedHashMap<>();
+        Map<Kind, AtomicLong> errors = new LinkedHashMap<>();
+        weights.keySet().forEach(kind -> {
+            recorders.put(kind, new Recorder(3));
+            errors.put(kind, new AtomicLong());
+        });
+        HeapSampler heap = new HeapSampler();
+
+        long start = System.nanoTime();
+        long measure = start + TimeUnit.SECONDS.toNanos(warmup);
+        long end = measure + TimeUnit.SECONDS.toNanos(duration);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            Client client = new Client(fixture, weights, recorders, errors, new Random(i), start, end,
+                    rate > 0 ? (long) (clients * 1e9 / rate) : 0);
+            Thread thread = new Thread(client, "loadtest-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+
+        // Discard the warmup
+        TimeUnit.NANOSECONDS.sleep(Math.max(0, measure - System.nanoTime()));
+        recorders.values().forEach(Recorder::reset);
+        errors.values().forEach(count -> count.set(0));
+        heap.start();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        heap.stop();
+        double seconds = (System.nanoTime() - measure) / 1e9;
+
+        System.out.printf("%nConcurrency %d, %.1f s%n", clients, seconds);
+        System.out.printf("%-16s %9s %7s %9s %9s %9s %9s %9s%n", "request", "count", "errors", "req/s", "p50 ms",
+                "p99 ms", "p999 ms", "max ms");
+        Histogram total = new Histogram(3);
+        long totalErrors = 0;
+        for (Kind kind : recorders.keySet()) {
+            Histogram histogram = recorders.get(kind).getIntervalHistogram();
+            total.add(histogram);
+            totalErrors += errors.get(kind).get();
+            print(kind.name(), histogram, errors.get(kind).get(), seconds);
+        }
+        print("all", total, totalErrors, seconds);
+        if (inProcess) {
+            System.out.printf("Heap: max %d MB used, %d MB committed; GC: %d collections, %d ms%n",
+                    heap.maxUsed >> 20, heap.maxCommitted >> 20, heap.collections, heap.gcTime);
+        }
+    }
+
+    private static void print(String name, Histogram histogram, long errors, double seconds) {
+        System.out.printf("%-16s %9d %7d %9.1f %9.1f %9.1f %9.1f %9.1f%n", name, histogram.getTotalCount(), errors,
+                histogram.getTotalCount() / seconds, histogram.getValueAtPercentile(50) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0, histogram.getValueAtPercentile(99.9) / 1000.0,
+                histogram.getMaxValue() / 1000.0);
+    }
+
+    /**
+     * A client that sends requests of random kinds until the end of a level.
+     * With a rate, each request is due at a fixed interval, and its latency
+     * counts from when it was due, so a stalled server is not hidden by the
+     * requests that were never sent (coordinated omission).
+     */
+    private static class Client implements Runnable {
+        private final Fixture fixture;
+        private final List<Kind> kinds = new ArrayList<>();
+        private final Map<Kind, Recorder> recorders;
+        private final Map<Kind, AtomicLong> errors;
+        private final Random random;
+        private final long start;
+        private final long end;
+        private final long interval;
+
+        Client(Fixture fixture, Map<Kind, Integer> weights, Map<Kind, Recorder> recorders,
+                Map<Kind, AtomicLong> errors, Random random, long start, long end, long interval) {
+            this.fixture = fixture;
+            weights.forEach((kind, weight) -> {
+                for (int i = 0; i < weight; i++) {
+                    kinds.add(kind);
+                }
+            });
+            this.recorders = recorders;
+            this.errors = errors;
+            this.random = random;
+            // Clients with a rate start at different times
+            this.start = interval > 0 ? start + (long) (random.nextDouble() * interval) : start;
+            this.end = end;
+            this.interval = interval;
+        }
+
+        @Override
+        public void run() {
+            long due = start;
+            while (due < end) {
+                long now = System.nanoTime();
+                if (interval > 0 && due > now) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(due - now);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                long sent = interval > 0 ? due : System.nanoTime();
+                Kind kind = kinds.get(random.nextInt(kinds.size()));
+                try {
+                    HttpResponse<Void> response = fixture.client.send(fixture.request(kind, random),
+                            HttpResponse.BodyHandlers.discarding());
+                    if (response.statusCode() >= 400) {
+                        errors.get(kind).incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    errors.get(kind).incrementAndGet();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long done = System.nanoTime();
+                recorders.get(kind).recordValue(Math.max(0, (done - sent) / 1000));
+                due = interval > 0 ? due + interval : done;
+            }
+        }
+    }
+
+    /**
+     * The documents and URLs that requests are made of.
+     */
+    private static class Fixture {
+        final HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        final Gson gson = new Gson();
+        final byte[] ontology;
+        final byte[] data;
+        final String schemaText;
+        final String dataText;
+        final AtomicLong fresh = new AtomicLong();
+        String standIn;
+        String target;
+
+        Fixture(Model ontology, Model data) {
+            this.ontology = write(ontology);
+            this.data = write(data);
+            this.schemaText = new String(this.ontology, StandardCharsets.UTF_8);
+            this.dataText = new String(this.data, StandardCharsets.UTF_8);
+        }
+
+        HttpRequest request(Kind kind, Random random) {
+            String individual = Synthetic.individual(random.nextInt(individuals));
+            switch (kind) {
+            case types:
+                return post("/api/types", message(schemaText, dataText, individual, null));
+            case typesUrl:
+                return post("/api/types", message(standIn + "/ontology/schema.ttl", standIn + "/data.ttl",
+                        individual, null));
+            case batch:
+                List<String> targets = new ArrayList<>();
+                for (int i = 0; i < batchSize; i++) {
+                    targets.add(Synthetic.individual(random.nextInt(individuals)));
+                }
+                return post("/api/types/batch", message(schemaText, dataText, null, targets));
+            case owl2shacl:
+                return get(standIn + "/ontology/fresh" + fresh.incrementAndGet() + ".ttl");
+            default:
+                return get(standIn + "/ontology/cached" + random.nextInt(cachedOntologies) + ".ttl");
+            }
+        }
+
+        private String message(String schema, String data, String target, List<String> targets) {
+            Map<String, Object> message = new LinkedHashMap<>();
+            message.put("schema", schema);
+            message.put("data", data);
+            message.put("target", target);
+            message.put("targets", targets);
+            return gson.toJson(message);
+        }
+
+        private HttpRequest post(String path, String body) {
+            return HttpRequest.newBuilder(URI.create(target + path))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build();
+        }
+
+        private HttpRequest get(String url) {
+            return HttpRequest.newBuilder(URI.create(target + "/api/owl2shacl?url="
+                    + URLEncoder.encode(url, StandardCharsets.UTF_8)))
+                    .header("Accept", "text/turtle")
+                    .GET()
+                    .build();
+        }
+
+        private static byte[] write(Model model) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            RDFDataMgr.write(out, model, Lang.TURTLE);
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Serve a document from the stand-in, answering conditional requests like
+     * an ontology host would.
+     */
+    private static void serve(HttpExchange exchange, byte[] body) throws IOException {
+        String etag = "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+        exchange.getResponseHeaders().set("Content-Type", "text/turtle");
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getRequestBody().readAllBytes();
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+        } else if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(200, -1);
+        } else {
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+        exchange.close();
+    }
+
+    /**
+     * Samples the heap of this JVM while a level is measured, and counts the
+     * garbage collections in between.
+     */
+    private static class HeapSampler {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        volatile long maxUsed;
+        volatile long maxCommitted;
+        long collections;
+        long gcTime;
+
+        void start() {
+            collections = -collections();
+            gcTime = -gcTime();
+            executor.scheduleAtFixedRate(() -> {
+                MemoryUsage usage = memory.getHeapMemoryUsage();
+                maxUsed = Math.max(maxUsed, usage.getUsed());
+                maxCommitted = Math.max(maxCommitted, usage.getCommitted());
+            }, 0, 100, TimeUnit.MILLISECONDS);
+        }
+
+        void stop() {
+            executor.shutdownNow();
+            collections += collections();
+            gcTime += gcTime();
+        }
+
+        private static long collections() {
+            long count = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                count += Math.max(0, gc.getCollectionCount());
+            }
+            return count;
+        }
+
+        private static long gcTime() {
+            long time = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                time += Math.max(0, gc.getCollectionTime());
+            }
+            return time;
+        }
+    }
+
+    private static int[] parseLevels(String levels) {
+        String[] parts = levels.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    private static Map<Kind, Integer> parseProfile(String profile) {
+        Map<Kind, Integer> weights = new LinkedHashMap<>();
+        for (String part : profile.split(",")) {
+            String[] pair = part.split("=");
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight > 0) {
+                weights.put(Kind.valueOf(pair[0].trim()), weight);
+            }
+        }
+        return weights;
+    }
+}
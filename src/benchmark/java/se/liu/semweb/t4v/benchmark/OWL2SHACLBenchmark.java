@@ -0,0 +1,109 @@
+package se.liu.semweb.t4v.benchmark;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jena.ontology.OntModel;
+import org.apache.jena.ontology.OntModelSpec;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import se.liu.semweb.t4v.BudgetedReasoner;
+import se.liu.semweb.t4v.owl2shacl.HierarchyClosure;
+import se.liu.semweb.t4v.owl2shacl.OWL2SHACL;
+import se.liu.semweb.t4v.owl2shacl.utils.OntologyIndex;
+import se.liu.semweb.t4v.owl2shacl.utils.Shape;
+import se.liu.semweb.t4v.owl2shacl.utils.ShapeUtils;
+
+/**
+ * Benchmarks of the OWL to SHACL conversion of a synthetic ontology: the
+ * whole conversion to Turtle, and its generation, compression and writing
+ * steps on their own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OWL2SHACLBenchmark {
+    @Param({ "50", "200" })
+    public int classes;
+
+    @Param({ "3" })
+    public int restrictions;
+
+    @Param({ "4" })
+    public int depth;
+
+    @Param({ "reasoner", "hierarchy" })
+    public String mode;
+
+    private Model base;
+    private OntModel model;
+    private OntologyIndex index;
+    private List<Shape> shapes;
+    private List<Shape> compressed;
+
+    @Setup
+    public void setup() {
+        base = Synthetic.ontology(classes, restrictions, depth);
+        if ("hierarchy".equals(mode)) {
+            model = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM, base);
+            model.addSubModel(HierarchyClosure.materialize(model));
+        } else {
+            model = ModelFactory.createOntologyModel(BudgetedReasoner.OWL_MEM_MICRO_RULE_INF, base);
+        }
+        // Reasoning happens once, here
+        index = OntologyIndex.build(model.getGraph(), base.getGraph());
+        shapes = new ArrayList<>();
+        OWL2SHACL.generate(model, index, false, shapes::add);
+        compressed = new ArrayList<>();
+        shapes.forEach(shape -> compressed.add(ShapeUtils.compressShape(shape, index)));
+    }
+
+    /**
+     * The whole conversion: reasoning, generation, compression and writing.
+     */
+    @Benchmark
+    public void convert() {
+        OWL2SHACL.owl2shacl(base, mode, true, Lang.TURTLE, OutputStream.nullOutputStream());
+    }
+
+    /**
+     * Generating the node shapes of an ontology that has been reasoned over.
+     */
+    @Benchmark
+    public void generate(Blackhole blackhole) {
+        OWL2SHACL.generate(model, index, false, blackhole::consume);
+    }
+
+    @Benchmark
+    public void compress(Blackhole blackhole) {
+        shapes.forEach(shape -> blackhole.consume(ShapeUtils.compressShape(shape, index)));
+    }
+
+    /**
+     * Naming, ordering and writing compressed node shapes.
+     */
+    @Benchmark
+    public void write() {
+        compressed.forEach(shape -> ShapeUtils.write(shape, index, StreamRDFLib.sinkNull()));
+    }
+}
@@ -0,0 +1,178 @@
+package se.liu.semweb.t4v.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.rdf.model.Literal;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.OWL2;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.apache.jena.vocabulary.XSD;
+
+/**
+ * Generates synthetic ontologies and data for the benchmarks, so that they run
+ * offline and can be scaled. The same parameters always give the same
+ * statements.
+ */
+public class Synthetic {
+    public static final String NS = "http://example.com/benchmark#";
+
+    private static final Resource[] datatypes = { XSD.xstring, XSD.integer, XSD.decimal, XSD.xboolean,
+            XSD.dateTime };
+
+    /**
+     * Return an ontology with a class hierarchy, object and datatype
+     * properties (a quarter as many as classes each, with domains, ranges,
+     * labels and some superproperties), and restrictions on the classes.
+     *
+     * @param classes      the number of classes
+     * @param restrictions the number of restrictions per class (0 for an
+     *                     ontology that only has hierarchies, domains and
+     *                     ranges)
+     * @param depth        the number of levels of the class hierarchy
+     * @return
+     */
+    public static Model ontology(int classes, int restrictions, int depth) {
+        Random random = new Random(classes * 31L + restrictions * 17L + depth);
+        Model model = ModelFactory.createDefaultModel();
+        model.setNsPrefix("", NS);
+        model.setNsPrefix("owl", OWL2.NS);
+        model.setNsPrefix("rdfs", RDFS.uri);
+        model.setNsPrefix("xsd", XSD.NS);
+        model.createResource(NS).addProperty(RDF.type, OWL2.Ontology);
+
+        // Classes, level by level
+        List<Resource> classList = new ArrayList<>();
+        List<Resource> previousLevel = new ArrayList<>();
+        List<Resource> level = new ArrayList<>();
+        int levels = Math.max(1, depth);
+        for (int i = 0; i < classes; i++) {
+            if (i > 0 && (long) i * levels / classes != (long) (i - 1) * levels / classes) {
+                previousLevel = level;
+                level = new ArrayList<>();
+            }
+            Resource cls = model.createResource(NS + "Class" + i)
+                    .addProperty(RDF.type, OWL2.Class)
+                    .addProperty(RDFS.label, "Class " + i);
+            if (!previousLevel.isEmpty()) {
+                cls.addProperty(RDFS.subClassOf, pick(previousLevel, random));
+            }
+            level.add(cls);
+            classList.add(cls);
+        }
+
+        // Properties, every fifth a sub-property of the one before
+        int count = Math.max(1, classes / 4);
+        List<Property> objectProperties = new ArrayList<>();
+        List<Property> datatypeProperties = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Property prop = model.createProperty(NS + "object" + i);
+            prop.addProperty(RDF.type, OWL2.ObjectProperty)
+                    .addProperty(RDFS.label, "object " + i)
+                    .addProperty(RDFS.domain, pick(classList, random))
+                    .addProperty(RDFS.range, pick(classList, random));
+            if (i % 5 == 4) {
+                prop.addProperty(RDFS.subPropertyOf, objectProperties.get(i - 1));
+            }
+            objectProperties.add(prop);
+
+            Property data = model.createProperty(NS + "data" + i);
+            data.addProperty(RDF.type, OWL2.DatatypeProperty)
+                    .addProperty(RDFS.label, "data " + i)
+                    .addProperty(RDFS.domain, pick(classList, random))
+                    .addProperty(RDFS.range, datatypes[i % datatypes.length]);
+            datatypeProperties.add(data);
+        }
+
+        // Restrictions of the kinds that the conversion maps to SHACL
+        for (Resource cls : classList) {
+            for (int i = 0; i < restrictions; i++) {
+                Resource restriction = model.createResource().addProperty(RDF.type, OWL2.Restriction);
+                switch (random.nextInt(6)) {
+                case 0:
+                    restriction.addProperty(OWL2.onProperty, pick(objectProperties, random))
+                            .addProperty(OWL2.someValuesFrom, pick(classList, random));
+                    break;
+                case 1:
+                    restriction.addProperty(OWL2.onProperty, pick(objectProperties, random))
+                            .addProperty(OWL2.minCardinality, cardinality(model, 1 + random.nextInt(2)));
+                    break;
+                case 2:
+                    restriction.addProperty(OWL2.onProperty, pick(datatypeProperties, random))
+                            .addProperty(OWL2.maxCardinality, cardinality(model, 1 + random.nextInt(3)));
+                    break;
+                case 3:
+                    restriction.addProperty(OWL2.onProperty, pick(objectProperties, random))
+                            .addProperty(OWL2.qualifiedCardinality, cardinality(model, 1))
+                            .addProperty(OWL2.onClass, pick(classList, random));
+                    break;
+                case 4:
+                    restriction.addProperty(OWL2.onProperty, pick(datatypeProperties, random))
+                            .addProperty(OWL2.someValuesFrom, datatypes[random.nextInt(datatypes.length)]);
+                    break;
+                default:
+                    RDFNode[] members = { pick(classList, random), pick(classList, random) };
+                    restriction.addProperty(OWL2.onProperty, pick(objectProperties, random))
+                            .addProperty(OWL2.someValuesFrom, model.createResource()
+                                    .addProperty(RDF.type, OWL2.Class)
+                                    .addProperty(OWL2.unionOf, model.createList(members)));
+                }
+                cls.addProperty(RDFS.subClassOf, restriction);
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Return data for an ontology: individuals of its classes, each with two
+     * object property values and one datatype property value.
+     *
+     * @param ontology
+     * @param individuals the number of individuals
+     * @return
+     */
+    public static Model data(Model ontology, int individuals) {
+        Random random = new Random(individuals);
+        List<Resource> classes = ontology.listSubjectsWithProperty(RDF.type, OWL2.Class)
+                .filterKeep(Resource::isURIResource).toList();
+        List<Resource> objectProperties = ontology.listSubjectsWithProperty(RDF.type, OWL2.ObjectProperty).toList();
+        List<Resource> datatypeProperties = ontology.listSubjectsWithProperty(RDF.type, OWL2.DatatypeProperty)
+                .toList();
+        Model model = ModelFactory.createDefaultModel();
+        model.setNsPrefix("", NS);
+        for (int i = 0; i < individuals; i++) {
+            Resource individual = model.createResource(individual(i))
+                    .addProperty(RDF.type, pick(classes, random));
+            for (int j = 0; j < 2; j++) {
+                individual.addProperty(model.createProperty(pick(objectProperties, random).getURI()),
+                        model.createResource(individual(random.nextInt(individuals))));
+            }
+            individual.addLiteral(model.createProperty(pick(datatypeProperties, random).getURI()),
+                    model.createTypedLiteral("value " + i, XSDDatatype.XSDstring));
+        }
+        return model;
+    }
+
+    /**
+     * @param i
+     * @return the URI of the i:th individual of the data
+     */
+    public static String individual(int i) {
+        return NS + "individual" + i;
+    }
+
+    private static Literal cardinality(Model model, int value) {
+        return model.createTypedLiteral(String.valueOf(value), XSDDatatype.XSDnonNegativeInteger);
+    }
+
+    private static <T> T pick(List<T> list, Random random) {
+        return list.get(random.nextInt(list.size()));
+    }
+}
@@ -0,0 +1,216 @@
+package se.liu.semweb.t4v;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.graph.impl.WrappedGraph;
+import org.apache.jena.util.iterator.ExtendedIterator;
+
+/**
+ * Limits on the wall-clock time and the number of inferred triples of a
+ * request. Reasoning checks the budget of the current thread cooperatively:
+ * whenever the rule engines read the data or add a deduction (see
+ * {@link BudgetedReasoner} and {@link #watch(Graph)}). When a limit is hit, or
+ * the budget is cancelled (e.g., because the client went away), the check
+ * throws a {@link BudgetExceededException}, which unwinds the reasoner.
+ *
+ * Default limits are configured with the system properties
+ * {@code t4v.budget.timeout} (seconds) and {@code t4v.budget.maxTriples}.
+ */
+public class Budget {
+    static private final long defaultTimeout = Long.getLong("t4v.budget.timeout", 60L);
+    static private final long defaultMaxTriples = Long.getLong("t4v.budget.maxTriples", 5_000_000L);
+
+    static private final ThreadLocal<Budget> current = new ThreadLocal<>();
+
+    private final long timeout;
+    private final long deadline;
+    private final long maxTriples;
+    private final AtomicLong triples = new AtomicLong();
+    private volatile String cancelled;
+
+    /**
+     * Create a budget.
+     *
+     * @param timeout    milliseconds, or a negative value for no limit
+     * @param maxTriples maximum number of inferred triples, or a negative value
+     *                   for no limit
+     */
+    public Budget(long timeout, long maxTriples) {
+        this.timeout = timeout;
+        this.deadline = timeout < 0 ? Long.MAX_VALUE : System.nanoTime() + timeout * 1_000_000;
+        this.maxTriples = maxTriples < 0 ? Long.MAX_VALUE : maxTriples;
+    }
+
+    /**
+     * Create a budget with the configured default limits.
+     *
+     * @return
+     */
+    static public Budget create() {
+        return new Budget(defaultTimeout < 0 ? -1 : defaultTimeout * 1000, defaultMaxTriples);
+    }
+
+    /**
+     * Return the budget of the current thread, or null.
+     *
+     * @return
+     */
+    static public Budget current() {
+        return current.get();
+    }
+
+    /**
+     * Run a task with this budget as the budget of the current thread.
+     *
+     * @param <T>
+     * @param task
+     * @return
+     */
+    public <T> T run(Callable<T> task) {
+        Scope scope = enter();
+        try {
+            return task.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        } finally {
+            scope.close();
+        }
+    }
+
+    /**
+     * Make this budget the budget of the current thread until the returned
+     * scope is closed.
+     *
+     * @return
+     */
+    public Scope enter() {
+        Scope scope = new Scope(current.get());
+        current.set(this);
+        return scope;
+    }
+
+    /**
+     * Restores the previous budget of a thread when closed.
+     */
+    static public class Scope implements AutoCloseable {
+        private final Budget previous;
+
+        private Scope(Budget previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (previous == null) {
+                current.remove();
+            } else {
+                current.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Cancel the work done under this budget.
+     *
+     * @param reason
+     */
+    public void cancel(String reason) {
+        cancelled = reason;
+    }
+
+    /**
+     * Throw a {@link BudgetExceededException} if the budget is exhausted or
+     * cancelled.
+     */
+    public void check() {
+        if (cancelled != null) {
+            throw new BudgetExceededException("Cancelled: " + cancelled);
+        }
+        if (System.nanoTime() > deadline) {
+            throw new BudgetExceededException("Reasoning exceeded the time limit of " + timeout + " ms");
+        }
+    }
+
+    /**
+     * Count an inferred triple.
+     */
+    public void deduced() {
+        if (triples.incrementAndGet() > maxTriples) {
+            throw new BudgetExceededException("Reasoning exceeded the limit of " + maxTriples + " inferred triples");
+        }
+    }
+
+    /**
+     * Check the budget of the current thread, if any.
+     */
+    static public void checkCurrent() {
+        Budget budget = current.get();
+        if (budget != null) {
+            budget.check();
+        }
+    }
+
+    /**
+     * Return a view of a graph that checks the budget of the current thread
+     * whenever it is read.
+     *
+     * @param graph
+     * @return
+     */
+    static public Graph watch(Graph graph) {
+        return new BudgetGraph(graph, false);
+    }
+
+    /**
+     * Graph that checks the current budget when it is read and, if it holds
+     * deductions, counts the triples added to it.
+     */
+    static class BudgetGraph extends WrappedGraph {
+        private final boolean deductions;
+
+        BudgetGraph(Graph base, boolean deductions) {
+            super(base);
+            this.deductions = deductions;
+        }
+
+        @Override
+        public void add(Triple t) {
+            Budget budget = current.get();
+            if (budget != null && deductions) {
+                budget.check();
+                budget.deduced();
+            }
+            super.add(t);
+        }
+
+        @Override
+        public ExtendedIterator<Triple> find(Triple m) {
+            checkCurrent();
+            return super.find(m);
+        }
+
+        @Override
+        public ExtendedIterator<Triple> find(Node s, Node p, Node o) {
+            checkCurrent();
+            return super.find(s, p, o);
+        }
+
+        @Override
+        public boolean contains(Node s, Node p, Node o) {
+            checkCurrent();
+            return super.contains(s, p, o);
+        }
+
+        @Override
+        public boolean contains(Triple t) {
+            checkCurrent();
+            return super.contains(t);
+        }
+    }
+}
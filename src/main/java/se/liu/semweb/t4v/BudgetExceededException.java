@@ -0,0 +1,12 @@
+package se.liu.semweb.t4v;
+
+/**
+ * Thrown when a request exceeds its reasoning budget or is cancelled.
+ */
+public class BudgetExceededException extends RuntimeException {
+    static private final long serialVersionUID = 1L;
+
+    public BudgetExceededException(String message) {
+        super(message);
+    }
+}
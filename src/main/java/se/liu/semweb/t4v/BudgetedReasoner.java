@@ -0,0 +1,114 @@
+package se.liu.semweb.t4v;
+
+import java.util.List;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.ontology.OntModelSpec;
+import org.apache.jena.reasoner.InfGraph;
+import org.apache.jena.reasoner.Reasoner;
+import org.apache.jena.reasoner.ReasonerException;
+import org.apache.jena.reasoner.rulesys.FBRuleInfGraph;
+import org.apache.jena.reasoner.rulesys.GenericRuleReasoner;
+import org.apache.jena.reasoner.rulesys.OWLMicroReasoner;
+import org.apache.jena.reasoner.rulesys.OWLMicroReasonerFactory;
+import org.apache.jena.reasoner.rulesys.Rule;
+import org.apache.jena.reasoner.rulesys.RulePreprocessHook;
+
+/**
+ * The OWL micro reasoner, with inference graphs that respect the budget of the
+ * current thread (see {@link Budget}). The rules and settings are those of
+ * Jena's OWL micro reasoner; the only difference is the deductions graph of
+ * the inference graphs, which checks the budget whenever a triple is inferred
+ * or looked up.
+ */
+public class BudgetedReasoner extends GenericRuleReasoner {
+    static private final BudgetedReasoner instance = new BudgetedReasoner();
+
+    /**
+     * Ontology model specification using the budgeted reasoner, to be used
+     * instead of {@link OntModelSpec#OWL_MEM_MICRO_RULE_INF}.
+     */
+    static public final OntModelSpec OWL_MEM_MICRO_RULE_INF = createSpec();
+
+    private BudgetedReasoner() {
+        super(OWLMicroReasoner.loadRules(), OWLMicroReasonerFactory.theInstance());
+        setOWLTranslation(true);
+        setMode(HYBRID);
+        setTransitiveClosureCaching(true);
+    }
+
+    /**
+     * Return the (unbound) budgeted OWL micro reasoner.
+     *
+     * @return
+     */
+    static public BudgetedReasoner get() {
+        return instance;
+    }
+
+    /**
+     * Precompute the implications of a schema, as
+     * {@link GenericRuleReasoner#bindSchema(Graph)} does in hybrid mode.
+     */
+    @Override
+    public Reasoner bindSchema(Graph tbox) throws ReasonerException {
+        if (schemaGraph != null) {
+            throw new ReasonerException("Can only bind one schema at a time to a BudgetedReasoner");
+        }
+        FBRuleInfGraph graph = new BudgetedInfGraph(this, rules, getPreload(), tbox);
+        graph.setUseTGCCache();
+        graph.prepare();
+
+        BudgetedReasoner reasoner = new BudgetedReasoner();
+        reasoner.schemaGraph = graph;
+        return reasoner;
+    }
+
+    /**
+     * Attach the reasoner to data, as {@link GenericRuleReasoner#bind(Graph)}
+     * does in hybrid mode.
+     */
+    @Override
+    public InfGraph bind(Graph data) throws ReasonerException {
+        Graph schema = schemaGraph == null ? getPreload() : schemaGraph;
+        List<Rule> ruleSet = ((FBRuleInfGraph) schema).getRules();
+        FBRuleInfGraph graph = new BudgetedInfGraph(this, ruleSet, schema);
+        graph.setUseTGCCache();
+        if (preprocessorHooks != null) {
+            for (RulePreprocessHook hook : preprocessorHooks) {
+                graph.addPreprocessingHook(hook);
+            }
+        }
+        if (schemaGraph == null) {
+            // As OWLMicroReasoner#bind
+            graph.setDatatypeRangeValidation(true);
+        }
+        graph.rebind(data);
+        return graph;
+    }
+
+    static private OntModelSpec createSpec() {
+        OntModelSpec spec = new OntModelSpec(OntModelSpec.OWL_MEM_MICRO_RULE_INF);
+        spec.setReasoner(instance);
+        return spec;
+    }
+
+    /**
+     * Inference graph whose deductions graph checks the current budget.
+     */
+    static private class BudgetedInfGraph extends FBRuleInfGraph {
+        BudgetedInfGraph(Reasoner reasoner, List<Rule> rules, Graph schema) {
+            super(reasoner, rules, schema);
+        }
+
+        BudgetedInfGraph(Reasoner reasoner, List<Rule> rules, Graph schema, Graph data) {
+            super(reasoner, rules, schema, data);
+        }
+
+        @Override
+        protected Graph createDeductionsGraph() {
+            Graph graph = super.createDeductionsGraph();
+            return graph instanceof Budget.BudgetGraph ? graph : new Budget.BudgetGraph(graph, true);
+        }
+    }
+}
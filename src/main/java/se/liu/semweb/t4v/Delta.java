@@ -0,0 +1,31 @@
+package se.liu.semweb.t4v;
+
+public class Delta {
+    private String add;
+    private String remove;
+    private String syntax;
+
+    public String getAdd() {
+        return add;
+    }
+
+    public void setAdd(String add) {
+        this.add = add;
+    }
+
+    public String getRemove() {
+        return remove;
+    }
+
+    public void setRemove(String remove) {
+        this.remove = remove;
+    }
+
+    public String getSyntax() {
+        return syntax;
+    }
+
+    public void setSyntax(String syntax) {
+        this.syntax = syntax;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,230 @@
+package se.liu.semweb.t4v;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.reasoner.Reasoner;
+import org.apache.jena.reasoner.TriplePattern;
+import org.apache.jena.reasoner.rulesys.BuiltinRegistry;
+import org.apache.jena.reasoner.rulesys.ClauseEntry;
+import org.apache.jena.reasoner.rulesys.Functor;
+import org.apache.jena.reasoner.rulesys.GenericRuleReasoner;
+import org.apache.jena.reasoner.rulesys.Node_RuleVariable;
+import org.apache.jena.reasoner.rulesys.Rule;
+import org.apache.jena.reasoner.rulesys.impl.LPRuleStore;
+import org.apache.jena.vocabulary.OWL2;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+
+/**
+ * Goal-directed inference of the types of a single target. Instead of
+ * materializing the deductions for every resource in the data, a backward
+ * chaining rule reasoner is queried for the rdf:type statements of the target
+ * only, so the work done is proportional to the part of the data that is
+ * reachable from the target through the rules.
+ *
+ * The schema (with its own inferences materialized, see {@link SchemaCache}) is
+ * compiled into rules for the OWL micro constructs that can affect the type of
+ * a resource: class and property hierarchies, domains and ranges, inverse,
+ * symmetric and transitive properties, hasValue restrictions (both ways),
+ * someValuesFrom restrictions (of classes and datatypes), minCardinality 1
+ * restrictions, and allValuesFrom restrictions on functional properties.
+ * rdf:type and properties defined by recursive rules are tabled, which makes
+ * cyclic rules terminate.
+ *
+ * The backward chaining engine of an inference graph is not thread-safe, but
+ * any number of inference graphs of the same reasoner can be used at once by
+ * different threads: the rules are compiled when the reasoner is created, and
+ * the schema is only read.
+ *
+ * OWL micro also infers the type of an allValuesFrom restriction for a class
+ * that is a sub-class of a maxCardinality 1 restriction on the same property.
+ * This is not compiled; schemas for which it may apply are not
+ * {@link #covers(Model) covered}, and have to be reasoned over with the
+ * OWL micro reasoner instead.
+ */
+public class GoalInference {
+    static private final Node x = new Node_RuleVariable("?x", 0);
+    static private final Node y = new Node_RuleVariable("?y", 1);
+    static private final Node z = new Node_RuleVariable("?z", 2);
+
+    static private final Node type = RDF.type.asNode();
+
+    /**
+     * Return true if the rules compiled from a (materialized) schema give the
+     * same types as the OWL micro reasoner for instance data.
+     *
+     * @param schema
+     * @return
+     */
+    static public boolean covers(Model schema) {
+        Graph graph = schema.getGraph();
+        Set<Node> bounded = new HashSet<>();
+        graph.find(Node.ANY, OWL2.maxCardinality.asNode(), Node.ANY)
+                .andThen(graph.find(Node.ANY, OWL2.cardinality.asNode(), Node.ANY))
+                .forEachRemaining(t -> graph.find(t.getSubject(), OWL2.onProperty.asNode(), Node.ANY)
+                        .forEachRemaining(p -> bounded.add(p.getObject())));
+        return !graph.find(Node.ANY, OWL2.allValuesFrom.asNode(), Node.ANY)
+                .filterKeep(t -> graph.find(t.getSubject(), OWL2.onProperty.asNode(), Node.ANY)
+                        .filterKeep(p -> bounded.contains(p.getObject())).hasNext())
+                .hasNext();
+    }
+
+    /**
+     * Return a backward chaining reasoner bound to a (materialized) schema.
+     *
+     * @param schema
+     * @return
+     */
+    static public Reasoner createReasoner(Model schema) {
+        Graph graph = schema.getGraph();
+        List<Rule> rules = new ArrayList<>();
+        Set<Node> tabled = new HashSet<>();
+        tabled.add(type);
+
+        // Class hierarchy (the schema closure is materialized). When the class of
+        // the goal is known only its sub classes are explored.
+        rules.add(rule(triple(x, type, z), builtin("unbound", z), triple(x, type, y),
+                triple(y, RDFS.subClassOf.asNode(), z)));
+        rules.add(rule(triple(x, type, z), builtin("bound", z), triple(y, RDFS.subClassOf.asNode(), z),
+                builtin("notEqual", y, z), triple(x, type, y)));
+        rules.add(rule(triple(x, type, OWL2.Thing.asNode()), triple(x, type, y),
+                triple(y, type, OWL2.Class.asNode())));
+        rules.add(rule(triple(x, type, RDFS.Resource.asNode()), triple(x, type, y),
+                triple(y, type, RDFS.Class.asNode())));
+
+        // Domains and ranges
+        forEach(graph, RDFS.domain.asNode(), (p, c) -> rules.add(rule(triple(x, type, c), triple(x, p, y))));
+        forEach(graph, RDFS.range.asNode(), (p, c) -> rules.add(rule(triple(x, type, c), triple(y, p, x))));
+        graph.find(Node.ANY, type, OWL2.ObjectProperty.asNode()).forEachRemaining(t -> {
+            Node p = t.getSubject();
+            if (!isVocabulary(p)) {
+                rules.add(rule(triple(x, type, OWL2.Thing.asNode()), triple(x, p, y)));
+                rules.add(rule(triple(x, type, OWL2.Thing.asNode()), triple(y, p, x)));
+            }
+        });
+
+        // Property hierarchy and characteristics
+        forEach(graph, RDFS.subPropertyOf.asNode(), (p, q) -> {
+            if (!p.equals(q)) {
+                rules.add(rule(triple(x, q, y), triple(x, p, y)));
+                tabled.add(q);
+            }
+        });
+        forEach(graph, OWL2.inverseOf.asNode(), (p, q) -> {
+            rules.add(rule(triple(x, p, y), triple(y, q, x)));
+            rules.add(rule(triple(x, q, y), triple(y, p, x)));
+            tabled.add(p);
+            tabled.add(q);
+        });
+        graph.find(Node.ANY, type, OWL2.SymmetricProperty.asNode()).forEachRemaining(t -> {
+            Node p = t.getSubject();
+            rules.add(rule(triple(x, p, y), triple(y, p, x)));
+            tabled.add(p);
+        });
+        graph.find(Node.ANY, type, OWL2.TransitiveProperty.asNode()).forEachRemaining(t -> {
+            Node p = t.getSubject();
+            // Expand from whichever end of the goal is bound
+            rules.add(rule(triple(x, p, z), builtin("bound", x), triple(x, p, y), triple(y, p, z)));
+            rules.add(rule(triple(x, p, z), builtin("unbound", x), triple(y, p, z), triple(x, p, y)));
+            tabled.add(p);
+        });
+
+        // Restrictions
+        graph.find(Node.ANY, OWL2.onProperty.asNode(), Node.ANY).forEachRemaining(t -> {
+            Node r = t.getSubject();
+            Node p = t.getObject();
+            graph.find(r, OWL2.hasValue.asNode(), Node.ANY).forEachRemaining(v -> {
+                rules.add(rule(triple(x, type, r), triple(x, p, v.getObject())));
+                if (!isVocabulary(p)) {
+                    rules.add(rule(triple(x, p, v.getObject()), triple(x, type, r)));
+                    tabled.add(p);
+                }
+            });
+            graph.find(r, OWL2.someValuesFrom.asNode(), Node.ANY).forEachRemaining(c -> {
+                Node d = c.getObject();
+                rules.add(rule(triple(x, type, r), triple(x, p, y), triple(y, type, d)));
+                if (graph.contains(d, type, RDFS.Datatype.asNode())) {
+                    rules.add(rule(triple(x, type, r), triple(x, p, y), builtin("isDType", y, d)));
+                }
+            });
+            graph.find(r, OWL2.minCardinality.asNode(), Node.ANY).forEachRemaining(n -> {
+                if (isOne(n.getObject()) && !p.equals(type)) {
+                    rules.add(rule(triple(x, type, r), triple(x, p, y)));
+                }
+            });
+            if (graph.contains(p, type, OWL2.FunctionalProperty.asNode())) {
+                graph.find(r, OWL2.allValuesFrom.asNode(), Node.ANY).forEachRemaining(c -> {
+                    rules.add(rule(triple(x, type, r), triple(x, p, y), triple(y, type, c.getObject())));
+                });
+            }
+        });
+
+        return new GoalReasoner(rules, graph, tabled);
+    }
+
+    /**
+     * Backward chaining reasoner over the data and a schema graph.
+     */
+    static private class GoalReasoner extends GenericRuleReasoner {
+        /**
+         * Table the predicates and compile the rules, which is otherwise done,
+         * without synchronization, by the first inference graph that is
+         * queried. Predicates must be tabled before the rules that call them
+         * are compiled.
+         */
+        GoalReasoner(List<Rule> rules, Graph schema, Set<Node> tabled) {
+            super(rules, schema, null, BACKWARD);
+            LPRuleStore store = getBruleStore();
+            tabled.forEach(store::tablePredicate);
+            store.codeFor(type);
+        }
+    }
+
+    /**
+     * Call the action for the subject and object of every statement with the
+     * predicate, skipping statements about the RDF, RDFS and OWL vocabularies.
+     */
+    static private void forEach(Graph graph, Node predicate, BiConsumer<Node, Node> action) {
+        graph.find(Node.ANY, predicate, Node.ANY).forEachRemaining(t -> {
+            if (!isVocabulary(t.getSubject())) {
+                action.accept(t.getSubject(), t.getObject());
+            }
+        });
+    }
+
+    static private Rule rule(TriplePattern head, ClauseEntry... body) {
+        Rule rule = new Rule(List.of(head), List.of(body));
+        rule.setBackward(true);
+        rule.setNumVars(3);
+        return rule;
+    }
+
+    static private TriplePattern triple(Node s, Node p, Node o) {
+        return new TriplePattern(Triple.create(s, p, o));
+    }
+
+    static private Functor builtin(String name, Node... args) {
+        return new Functor(name, List.of(args), BuiltinRegistry.theRegistry);
+    }
+
+    static private boolean isOne(Node node) {
+        return node.isLiteral() && node.getLiteralValue() instanceof Number
+                && ((Number) node.getLiteralValue()).longValue() == 1;
+    }
+
+    static private boolean isVocabulary(Node node) {
+        if (!node.isURI()) {
+            return false;
+        }
+        String uri = node.getURI();
+        return uri.startsWith(RDF.uri) || uri.startsWith(RDFS.uri) || uri.startsWith(OWL2.NS);
+    }
+}
@@ -1,17 +1,29 @@
 package se.liu.semweb.t4v;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
 import java.io.InputStream;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BooleanSupplier;
+
 import org.apache.jena.ext.xerces.util.URI;
 import org.apache.jena.ext.xerces.util.URI.MalformedURIException;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
 import org.apache.jena.ontology.OntModel;
 import org.apache.jena.ontology.OntModelSpec;
+import org.apache.jena.rdf.model.InfModel;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.Resource;
-import org.apache.jena.sparql.exec.RowSet.Exception;
+import org.apache.jena.reasoner.Reasoner;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.sparql.graph.GraphFactory;
 import org.apache.jena.vocabulary.RDF;
 import org.apache.jena.vocabulary.RDFS;
 import org.slf4j.Logger;
@@ -29,30 +41,308 @@ public class InferenceEngine {
      * @return
      */
     static public Model load(String data) {
-        OntModel model = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM_MICRO_RULE_INF);
+        OntModel model = ModelFactory.createOntologyModel(BudgetedReasoner.OWL_MEM_MICRO_RULE_INF);
+        parse(model, data, null);
+        return model;
+    }
+
+    /**
+     * Returns a model without inference support from an input string. Imported
+     * ontologies are loaded automatically.
+     * 
+     * @param data
+     * @return
+     */
+    static public Model read(String data) {
+        return read(data, null);
+    }
+
+    /**
+     * Returns a model without inference support from an input string in the
+     * given syntax (a syntax name or media type). If no syntax is given it is
+     * detected from the input. Imported ontologies are loaded automatically.
+     * 
+     * @param data
+     * @param syntax
+     * @return
+     */
+    static public Model read(String data, String syntax) {
+        OntModel model = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM);
+        parse(model, data, syntax);
+        return model;
+    }
+
+    /**
+     * Parse an input string (or the document at a URI) into a model. The input
+     * is parsed exactly once, using the given syntax or else the syntax detected
+     * from the beginning of the input.
+     * 
+     * @param model
+     * @param data
+     * @param syntax
+     */
+    static void parse(Model model, String data, String syntax) {
+        Lang hint = RDFSyntax.fromHint(syntax);
         if (isURI(data)) {
-            model.read(data);
-        } else {
-
-            InputStream is = new ByteArrayInputStream(data.getBytes());
-            String[] syntaxes = new String[] { "TTL", "NT", "RDF/XML", "N3", "JSON-LD", "RDF/JSON" };
-            for (String syntax : syntaxes) {
-                try {
-                    model.read(is, null, syntax);
-                    logger.info("Parsed input as " + syntax);
-                    break;
-                } catch (Exception e) {
-                    logger.info("Failed to parse input as " + syntax);
-                }
-            }
+            Timing.time("fetch", () -> hint != null ? model.read(data, hint.getName()) : model.read(data));
+            Timing.parsed(hint != null ? hint.getName() : "url");
+            return;
+        }
+
+        Lang lang = hint != null ? hint : RDFSyntax.sniff(data);
+        try {
+            Timing.time("parse", () -> model.read(new StringReader(data), null, lang.getName()));
+            Timing.parsed(lang.getName());
+            logger.info("Parsed input as " + lang.getName());
+        } catch (RiotException e) {
+            throw new IllegalArgumentException("Failed to parse input as " + lang.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns a model without inference support from an input stream in the
+     * given syntax (a syntax name or media type). The stream is parsed directly
+     * into the model. If no syntax is given it is detected from the beginning of
+     * the stream. Imported ontologies are loaded automatically.
+     * 
+     * @param in
+     * @param syntax
+     * @return
+     */
+    static public Model read(InputStream in, String syntax) {
+        OntModel model = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM);
+        Lang lang = RDFSyntax.fromHint(syntax);
+        if (lang == null) {
+            in = new BufferedInputStream(in, RDFSyntax.headSize);
+            lang = RDFSyntax.sniff((BufferedInputStream) in);
+        }
+        try {
+            InputStream input = in;
+            Lang parsed = lang;
+            Timing.time("parse", () -> model.read(input, null, parsed.getName()));
+            Timing.parsed(lang.getName());
+            logger.info("Parsed input stream as " + lang.getName());
+        } catch (RiotException e) {
+            throw new IllegalArgumentException("Failed to parse input as " + lang.getName() + ": " + e.getMessage(), e);
         }
         return model;
     }
 
     static public List<String> getInferredClasses(String data, String schema, String target) {
-        Model model = load(data);
-        Model schema_model = load(schema);
-        model.add(schema_model);
+        return getInferredClasses(data, schema, target, null);
+    }
+
+    static public List<String> getInferredClasses(String data, String schema, String target, String mode) {
+        Message message = new Message();
+        message.setData(data);
+        message.setSchema(schema);
+        message.setTarget(target);
+        message.setMode(mode);
+        return getInferredClasses(message);
+    }
+
+    /**
+     * Returns the inferred classes of a target. If the mode is "goal" the types
+     * are inferred by backward chaining from the target only, otherwise ("full",
+     * the default) the full inference model of the data is used. Schemas that
+     * only define class and property hierarchies are answered from their
+     * precomputed closure in both modes.
+     * 
+     * @param message
+     * @return
+     * @throws IllegalArgumentException if the mode is unknown
+     */
+    static public List<String> getInferredClasses(Message message) {
+        checkMode(message.getMode());
+        SchemaCache.Entry entry = SchemaCache.get(message.getSchema(), message.getSchemaSyntax());
+        Model dataModel = read(message.getData(), message.getSyntax());
+        return getInferredClasses(dataModel, entry, message.getTarget(), message.getMode());
+    }
+
+    /**
+     * Returns the inferred classes of a target in an already loaded data model.
+     * 
+     * @param dataModel
+     * @param entry
+     * @param target
+     * @param mode
+     * @return
+     * @throws IllegalArgumentException if the mode is unknown
+     */
+    static public List<String> getInferredClasses(Model dataModel, SchemaCache.Entry entry, String target,
+            String mode) {
+        checkMode(mode);
+        Timing.triples("data", size(dataModel));
+        return Timing.time("infer", () -> Workers.reason(() -> {
+            // Hierarchy-only schemas are answered from the precomputed closure
+            TypeClosure closure = entry.getClosure();
+            if (closure != null) {
+                List<String> list = closure.getTypes(dataModel.getGraph(), NodeFactory.createURI(target));
+                if (list != null) {
+                    return list;
+                }
+            }
+
+            Reasoner reasoner = getReasoner(entry, mode, () -> TypeClosure.isPlainData(dataModel.getGraph()));
+            Model model = createInfModel(reasoner, dataModel);
+            return listTypes(model, target);
+        }));
+    }
+
+    /**
+     * Resolves the inferred classes of many targets against the same data and
+     * schema. Implementations are safe to use from multiple threads.
+     */
+    public interface TypeResolver {
+        /**
+         * Return the inferred classes of a target.
+         * 
+         * @param target
+         * @return
+         */
+        List<String> getTypes(String target);
+
+        /**
+         * Return all named subjects of the data.
+         * 
+         * @return
+         */
+        List<String> getSubjects();
+    }
+
+    /**
+     * Returns a resolver for the inferred classes of any number of targets. The
+     * data and schema are loaded once. Unless the types can be looked up from the
+     * schema's precomputed closure, the inferred types of all resources are
+     * materialized once (or, in "goal" mode, inferred per target by backward
+     * chaining, on a pool of inference models that are used by one thread at a
+     * time and keep their tabled answers for the next target).
+     * 
+     * @param message
+     * @return
+     * @throws IllegalArgumentException if the mode is unknown
+     */
+    static public TypeResolver getTypeResolver(Message message) {
+        String mode = message.getMode();
+        checkMode(mode);
+        SchemaCache.Entry entry = SchemaCache.get(message.getSchema(), message.getSchemaSyntax());
+        Model dataModel = read(message.getData(), message.getSyntax());
+        Timing.triples("data", size(dataModel));
+        Graph graph = dataModel.getGraph();
+        TypeClosure closure = entry.getClosure();
+        boolean plain = TypeClosure.isPlainData(graph);
+        boolean lookup = closure != null && plain;
+        Reasoner reasoner = getReasoner(entry, mode, () -> plain);
+
+        return new TypeResolver() {
+            private Graph types;
+
+            // Goal-directed models that no thread is using
+            private final Queue<Model> goals = new ConcurrentLinkedQueue<>();
+
+            @Override
+            public List<String> getTypes(String target) {
+                return Timing.time("infer", () -> lookup(target));
+            }
+
+            private List<String> lookup(String target) {
+                if (lookup) {
+                    List<String> list = closure.lookup(graph, NodeFactory.createURI(target));
+                    if (list != null) {
+                        return list;
+                    }
+                }
+                if (reasoner != entry.getReasoner()) {
+                    Model goal = goals.poll();
+                    if (goal == null) {
+                        goal = createInfModel(reasoner, dataModel);
+                    }
+                    // A model that failed is dropped rather than reused
+                    List<String> list = listTypes(goal, target);
+                    goals.add(goal);
+                    return list;
+                }
+                Graph types = materialize();
+                List<String> list = new ArrayList<>();
+                types.find(NodeFactory.createURI(target), RDF.type.asNode(), Node.ANY).forEachRemaining(t -> {
+                    if (t.getObject().isURI()) {
+                        list.add(t.getObject().getURI());
+                    }
+                });
+                return list;
+            }
+
+            @Override
+            public List<String> getSubjects() {
+                List<String> list = new ArrayList<>();
+                dataModel.listSubjects().filterKeep(Resource::isURIResource).forEach(r -> list.add(r.getURI()));
+                return list;
+            }
+
+            private synchronized Graph materialize() {
+                if (types == null) {
+                    types = GraphFactory.createDefaultGraph();
+                    Model model = createInfModel(entry.getReasoner(), dataModel);
+                    model.getGraph().find(Node.ANY, RDF.type.asNode(), Node.ANY).forEachRemaining(types::add);
+                }
+                return types;
+            }
+        };
+    }
+
+    /**
+     * Check that a mode of {@code /api/types} is known: "full" (the default)
+     * or "goal".
+     * 
+     * @param mode the mode, or null
+     * @throws IllegalArgumentException if the mode is unknown
+     */
+    static public void checkMode(String mode) {
+        if (mode != null && !mode.equals("full") && !mode.equals("goal")) {
+            throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+    }
+
+    /**
+     * Returns the reasoner for a mode: the goal-directed reasoner of the schema
+     * in "goal" mode, otherwise the reasoner bound to the schema. Data that
+     * contains schema statements is always reasoned over with the latter,
+     * since the goal-directed rules are compiled from the schema alone.
+     * 
+     * @param entry
+     * @param mode
+     * @param plainData tells if the data only contains instance data
+     * @return
+     */
+    static Reasoner getReasoner(SchemaCache.Entry entry, String mode, BooleanSupplier plainData) {
+        return "goal".equals(mode) && plainData.getAsBoolean() ? entry.getGoalReasoner() : entry.getReasoner();
+    }
+
+    /**
+     * Returns an inference model over data, which checks the budget of the
+     * current thread whenever the reasoner reads the data.
+     * 
+     * @param reasoner
+     * @param dataModel
+     * @return
+     */
+    static InfModel createInfModel(Reasoner reasoner, Model dataModel) {
+        Model watched = ModelFactory.createModelForGraph(Budget.watch(dataModel.getGraph()));
+        return ModelFactory.createInfModel(reasoner, watched);
+    }
+
+    /**
+     * Returns the number of triples in a model, not counting the imports of an
+     * ontology model.
+     * 
+     * @param model
+     * @return
+     */
+    static long size(Model model) {
+        return model instanceof OntModel ? ((OntModel) model).getBaseModel().size() : model.size();
+    }
+
+    static List<String> listTypes(Model model, String target) {
         Resource resource = model.getResource(target);
         List<String> list = new ArrayList<>();
         model.listObjectsOfProperty(resource, RDF.type).forEach(v -> {
@@ -65,7 +355,7 @@ public class InferenceEngine {
         return list;
     }
 
-    static private boolean isURI(String s) {
+    static boolean isURI(String s) {
         try {
             new URI(s);
             return true;
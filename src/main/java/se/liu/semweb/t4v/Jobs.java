@@ -0,0 +1,279 @@
+package se.liu.semweb.t4v;
+
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.jena.riot.Lang;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of asynchronous {@code /api/owl2shacl} conversion jobs. Jobs run on
+ * a pool of {@code t4v.jobs.threads} threads, and their results are converted
+ * through the {@link ShaclCache}. Jobs are meant for conversions that take
+ * longer than a request may, so each has its own reasoning {@link Budget}:
+ * {@code t4v.jobs.timeout} seconds (no limit by default) and
+ * {@code t4v.jobs.maxTriples} inferred triples, rather than the budget of a
+ * request.
+ *
+ * A job submitted while another job for the same ontology and options is
+ * pending or running is that job, so concurrent submissions share one
+ * conversion. Finished jobs are kept for {@code t4v.jobs.ttl} seconds, and at
+ * most {@code t4v.jobs.maxJobs} jobs, with results of at most
+ * {@code t4v.jobs.maxBytes} bytes in all, are kept; the oldest finished jobs
+ * are removed first. A job whose result alone is larger fails.
+ */
+public class Jobs {
+    static private Logger logger = LoggerFactory.getLogger(Jobs.class);
+
+    static private final int threads = Integer.getInteger("t4v.jobs.threads", 2);
+    static private final int maxJobs = Integer.getInteger("t4v.jobs.maxJobs", 1000);
+    static private final long ttl = Long.getLong("t4v.jobs.ttl", 600L) * 1000;
+    static private final long maxBytes = Long.getLong("t4v.jobs.maxBytes", 256L * 1024 * 1024);
+    static private final long timeout = Long.getLong("t4v.jobs.timeout", -1L);
+    static private final long maxTriples = Long.getLong("t4v.jobs.maxTriples", 50_000_000L);
+
+    static private final LinkedHashMap<String, Job> jobs = new LinkedHashMap<>();
+    // Bytes of the results of the jobs kept
+    static private long bytes = 0;
+
+    // Pending and running jobs by result key
+    static private final Map<String, Job> running = new HashMap<>();
+
+    static private ExecutorService executor;
+
+    /**
+     * A conversion job.
+     */
+    static public class Job {
+        private final String id;
+        private final String url;
+        private final String mode;
+        private final boolean shapesOnly;
+        private final String contentType;
+        private final CompletableFuture<ShaclCache.Entry> result = new CompletableFuture<>();
+        private final AtomicInteger requests = new AtomicInteger(1);
+        // Pending or running, until the result is complete
+        private volatile String status = "pending";
+        private volatile long finished;
+        private long size;
+
+        Job(String url, String mode, boolean shapesOnly, String contentType) {
+            this.id = UUID.randomUUID().toString();
+            this.url = url;
+            this.mode = mode;
+            this.shapesOnly = shapesOnly;
+            this.contentType = contentType;
+        }
+
+        /**
+         * Return the ID of the job.
+         *
+         * @return
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Return the status of the job: "pending", "running", "done" or
+         * "failed".
+         *
+         * @return
+         */
+        public String getStatus() {
+            if (result.isDone()) {
+                return result.isCompletedExceptionally() ? "failed" : "done";
+            }
+            return status;
+        }
+
+        /**
+         * Return the result of a job that is done, or null.
+         *
+         * @return
+         */
+        public ShaclCache.Entry getResult() {
+            return "done".equals(getStatus()) ? result.join() : null;
+        }
+
+        /**
+         * Return the message of the error that a failed job ended with, or
+         * null.
+         *
+         * @return
+         */
+        public String getError() {
+            if (!"failed".equals(getStatus())) {
+                return null;
+            }
+            try {
+                result.join();
+                return null;
+            } catch (RuntimeException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                return cause.getMessage();
+            }
+        }
+
+        /**
+         * Return the state of the job as a map, for JSON responses.
+         *
+         * @return
+         */
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("id", id);
+            map.put("url", url);
+            map.put("mode", mode == null ? "reasoner" : mode);
+            map.put("shapesOnly", shapesOnly);
+            map.put("contentType", contentType);
+            map.put("status", getStatus());
+            map.put("requests", requests.get());
+            String error = getError();
+            if (error != null) {
+                map.put("error", error);
+            }
+            return map;
+        }
+
+        /**
+         * Return a future that completes with this job when it is done or has
+         * failed, or after a timeout, whichever comes first.
+         *
+         * @param timeout seconds
+         * @return
+         */
+        public CompletableFuture<Job> await(long timeout) {
+            return result.handle((entry, e) -> this).completeOnTimeout(this, timeout, TimeUnit.SECONDS);
+        }
+
+        private boolean isFinished() {
+            return result.isDone();
+        }
+    }
+
+    /**
+     * Submit a conversion job, or join the pending or running job for the same
+     * ontology and options.
+     *
+     * @param url
+     * @param mode        the conversion mode, or null
+     * @param shapesOnly  if true, the result does not include the ontology
+     * @param lang        the RDF syntax that the shapes are written in
+     * @param contentType the content type of the result
+     * @param render      wraps the stream that the shapes are written to
+     * @return the job, or null if too many jobs are pending or running
+     */
+    static public Job submit(String url, String mode, boolean shapesOnly, Lang lang, String contentType,
+            Function<OutputStream, OutputStream> render) {
+        String key = ShaclCache.key(url, mode, shapesOnly, contentType);
+        Job job;
+        synchronized (jobs) {
+            job = running.get(key);
+            if (job != null) {
+                job.requests.incrementAndGet();
+                return job;
+            }
+            evict();
+            if (jobs.size() >= maxJobs) {
+                return null;
+            }
+            job = new Job(url, mode, shapesOnly, contentType);
+            jobs.put(job.id, job);
+            running.put(key, job);
+        }
+        logger.info("Submitted job " + job.id + " for " + url);
+
+        Job submitted = job;
+        getExecutor().execute(() -> {
+            submitted.status = "running";
+            ShaclCache.Entry entry = null;
+            Throwable error = null;
+            try {
+                Budget budget = new Budget(timeout < 0 ? -1 : timeout * 1000, maxTriples);
+                entry = budget.run(() -> ShaclCache.get(url, mode, shapesOnly, lang, contentType, render));
+                if (entry.size() > maxBytes) {
+                    error = new IllegalStateException("The result is too large to keep (" + entry.size()
+                            + " bytes); convert the ontology with GET /api/owl2shacl instead");
+                    entry = null;
+                }
+            } catch (RuntimeException | Error e) {
+                error = e;
+            }
+            // Later submissions start a new job
+            submitted.finished = System.currentTimeMillis();
+            synchronized (jobs) {
+                running.remove(key, submitted);
+                if (entry != null) {
+                    submitted.size = entry.size();
+                    bytes += submitted.size;
+                }
+            }
+            // The status follows the result
+            if (error == null) {
+                submitted.result.complete(entry);
+                logger.info("Finished job " + submitted.id);
+            } else {
+                submitted.result.completeExceptionally(error);
+                logger.warn("Job " + submitted.id + " failed: " + error.getMessage());
+            }
+            synchronized (jobs) {
+                evict();
+            }
+        });
+        return job;
+    }
+
+    /**
+     * Return a job, or null if there is no such job.
+     *
+     * @param id
+     * @return
+     */
+    static public Job get(String id) {
+        synchronized (jobs) {
+            evict();
+            return jobs.get(id);
+        }
+    }
+
+    /**
+     * Remove finished jobs older than the time they are kept, and the oldest
+     * finished jobs while there is no room for another job or their results
+     * take up too many bytes.
+     */
+    static private void evict() {
+        long now = System.currentTimeMillis();
+        Iterator<Job> it = jobs.values().iterator();
+        while (it.hasNext()) {
+            Job job = it.next();
+            if (job.isFinished() && (now - job.finished > ttl || jobs.size() >= maxJobs || bytes > maxBytes)) {
+                it.remove();
+                bytes -= job.size;
+            }
+        }
+    }
+
+    static private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            AtomicInteger count = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "job-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,79 @@
+package se.liu.semweb.t4v;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the (UTF-8) text written to it as the {@code result} member of a JSON
+ * object, the format of the JSON responses of {@code /api/owl2shacl}, without
+ * holding the text in memory. The object is completed when the stream is
+ * closed.
+ *
+ * In UTF-8 the bytes of multi-byte characters never look like ASCII, so
+ * quotes, backslashes and control characters can be escaped byte by byte.
+ */
+public class JsonResultOutputStream extends FilterOutputStream {
+    static private final byte[] start = "{\n  \"result\": \"".getBytes(StandardCharsets.US_ASCII);
+    static private final byte[] end = "\"\n}".getBytes(StandardCharsets.US_ASCII);
+
+    private boolean started = false;
+
+    public JsonResultOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        start();
+        // Bytes that need no escaping are written in runs
+        int run = off;
+        for (int i = off; i < off + len; i++) {
+            String escaped = escape(b[i]);
+            if (escaped != null) {
+                out.write(b, run, i - run);
+                out.write(escaped.getBytes(StandardCharsets.US_ASCII));
+                run = i + 1;
+            }
+        }
+        out.write(b, run, off + len - run);
+    }
+
+    @Override
+    public void close() throws IOException {
+        start();
+        out.write(end);
+        super.close();
+    }
+
+    private void start() throws IOException {
+        if (!started) {
+            started = true;
+            out.write(start);
+        }
+    }
+
+    static private String escape(byte b) {
+        switch (b) {
+        case '"':
+            return "\\\"";
+        case '\\':
+            return "\\\\";
+        case '\n':
+            return "\\n";
+        case '\r':
+            return "\\r";
+        case '\t':
+            return "\\t";
+        default:
+            // Negative bytes are parts of multi-byte characters
+            return b >= 0 && b < 0x20 ? String.format("\\u%04x", b) : null;
+        }
+    }
+}
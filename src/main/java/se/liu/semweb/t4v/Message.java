@@ -1,9 +1,15 @@
 package se.liu.semweb.t4v;
 
+import java.util.List;
+
 public class Message {
     private String target;
     private String data;
     private String schema;
+    private String mode;
+    private List<String> targets;
+    private String syntax;
+    private String schemaSyntax;
 
     public String getSchema() {
         return this.schema;
@@ -28,4 +34,36 @@ public class Message {
     public void setData(String data) {
         this.data = data;
     }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    public List<String> getTargets() {
+        return targets;
+    }
+
+    public void setTargets(List<String> targets) {
+        this.targets = targets;
+    }
+
+    public String getSyntax() {
+        return syntax;
+    }
+
+    public void setSyntax(String syntax) {
+        this.syntax = syntax;
+    }
+
+    public String getSchemaSyntax() {
+        return schemaSyntax;
+    }
+
+    public void setSchemaSyntax(String schemaSyntax) {
+        this.schemaSyntax = schemaSyntax;
+    }
 }
\ No newline at end of file
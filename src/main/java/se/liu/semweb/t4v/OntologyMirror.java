@@ -0,0 +1,431 @@
+package se.liu.semweb.t4v;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.jena.atlas.web.ContentType;
+import org.apache.jena.atlas.web.TypedInputStream;
+import org.apache.jena.ontology.OntDocumentManager;
+import org.apache.jena.riot.WebContent;
+import org.apache.jena.riot.adapters.AdapterFileManager;
+import org.apache.jena.riot.system.stream.LocationMapper;
+import org.apache.jena.riot.system.stream.Locator;
+import org.apache.jena.riot.system.stream.StreamManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local, persistent mirror of remote RDF documents (ontologies and their
+ * owl:imports). Once installed, every http(s) document read through Jena, by
+ * {@code Model.read} as well as by the import processing of ontology models,
+ * is served from the mirror directory and only fetched over the network if it
+ * is missing or (optionally) stale.
+ *
+ * The mirror plugs into Jena's global stream manager: the location mapper maps
+ * http(s) URLs to the {@code mirror:} scheme, which is opened by the mirror's
+ * locator. Base URIs are not affected by the mapping.
+ *
+ * The mirror is enabled by setting the system property {@code t4v.mirror.dir}.
+ * Documents older than {@code t4v.mirror.ttl} seconds are revalidated with a
+ * conditional request (a negative value, the default, never revalidates), and
+ * with {@code t4v.mirror.offline=true} documents are only served from the
+ * mirror. If revalidation fails the mirrored copy is used. At most
+ * {@code t4v.mirror.maxEntries} documents are kept; when a new document is
+ * mirrored, the least recently read documents are removed first.
+ */
+public class OntologyMirror implements Locator {
+    static private Logger logger = LoggerFactory.getLogger(OntologyMirror.class);
+
+    static private final String scheme = "mirror:";
+
+    static private OntologyMirror installed;
+
+    private final Path dir;
+    private final Duration ttl;
+    private final boolean offline;
+    private final int maxEntries;
+    private final HttpClient client;
+
+    // One lock per URL, so that concurrent reads of a document fetch it once.
+    // (Locks rather than monitors, which would pin virtual threads while fetching.)
+    // Locks are removed when no thread holds or waits for them.
+    private final ConcurrentHashMap<String, KeyLock> locks = new ConcurrentHashMap<>();
+
+    /**
+     * The lock of a URL, and the number of threads that hold or wait for it.
+     */
+    static private class KeyLock {
+        final ReentrantLock lock = new ReentrantLock();
+        int users;
+    }
+
+    public OntologyMirror(Path dir, Duration ttl, boolean offline, int maxEntries) {
+        this.dir = dir;
+        this.ttl = ttl;
+        this.offline = offline;
+        this.maxEntries = maxEntries;
+        this.client = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+    }
+
+    /**
+     * Install a mirror configured by the system properties, if
+     * {@code t4v.mirror.dir} is set.
+     *
+     * @return the installed mirror or null
+     */
+    static public OntologyMirror install() {
+        String dir = System.getProperty("t4v.mirror.dir");
+        if (dir == null || dir.isBlank()) {
+            return null;
+        }
+        long ttl = Long.getLong("t4v.mirror.ttl", -1L);
+        boolean offline = Boolean.getBoolean("t4v.mirror.offline");
+        int maxEntries = Integer.getInteger("t4v.mirror.maxEntries", 1000);
+        OntologyMirror mirror = new OntologyMirror(Paths.get(dir), ttl < 0 ? null : Duration.ofSeconds(ttl),
+                offline, maxEntries);
+        mirror.install(StreamManager.get(), OntDocumentManager.getInstance());
+        installed = mirror;
+        logger.info("Mirroring remote documents in " + dir + (offline ? " (offline)" : ""));
+        return mirror;
+    }
+
+    /**
+     * Return the mirror installed by {@link #install()}, or null.
+     *
+     * @return
+     */
+    static public OntologyMirror get() {
+        return installed;
+    }
+
+    /**
+     * Install the mirror in a stream manager (used by {@code Model.read}) and an
+     * ontology document manager (used by ontology models and their imports).
+     *
+     * @param streamManager
+     * @param documentManager
+     */
+    public void install(StreamManager streamManager, OntDocumentManager documentManager) {
+        LocationMapper mapper = streamManager.getLocationMapper();
+        if (mapper == null) {
+            mapper = new LocationMapper();
+            streamManager.setLocationMapper(mapper);
+        }
+
+        // The document manager passes mapped URLs to java.net.URL, so it must not
+        // see the mirror: scheme. Its locators are asked with the original URL
+        // instead, and the mirror comes first.
+        StreamManager documents = new StreamManager();
+        documents.addLocator(this);
+        streamManager.locators().forEach(documents::addLocator);
+        documents.setLocationMapper(mapper.clone());
+        documentManager.setFileManager(new AdapterFileManager(documents));
+
+        // RIOT fetches http(s) URLs itself, unless they are mapped to another scheme
+        mapper.addAltPrefix("http://", scheme + "http://");
+        mapper.addAltPrefix("https://", scheme + "https://");
+        streamManager.addLocator(this);
+    }
+
+    @Override
+    public TypedInputStream open(String uri) {
+        String url = uri.startsWith(scheme) ? uri.substring(scheme.length()) : uri;
+        if (!url.startsWith("http://") && !url.startsWith("https://")) {
+            return null;
+        }
+        try {
+            Document document = get(url);
+            if (document == null) {
+                return null;
+            }
+            InputStream in = Files.newInputStream(document.data);
+            return document.contentType == null ? new TypedInputStream(in, (ContentType) null)
+                    : new TypedInputStream(in, ContentType.create(document.contentType));
+        } catch (IOException e) {
+            logger.warn("Failed to open " + url + " from the mirror: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Revalidate a mirrored document with the origin server now, regardless of
+     * its age, fetching it if it is not mirrored yet. In offline mode nothing
+     * is fetched.
+     *
+     * @param url
+     * @return true if a new version of the document was fetched
+     * @throws IOException
+     */
+    public boolean revalidate(String url) throws IOException {
+        if (offline) {
+            return false;
+        }
+        KeyLock lock = lock(url);
+        try {
+            Document document = load(url);
+            boolean cached = !document.properties.isEmpty();
+            try {
+                return fetch(url, document, cached).modified;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted");
+            }
+        } finally {
+            unlock(url, lock);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "OntologyMirror";
+    }
+
+    /**
+     * A mirrored document: the data file and its metadata.
+     */
+    static private class Document {
+        final Path data;
+        final Path meta;
+        final Properties properties = new Properties();
+        String contentType;
+        boolean modified;
+
+        Document(Path data, Path meta) {
+            this.data = data;
+            this.meta = meta;
+        }
+    }
+
+    /**
+     * Return the mirrored document of a URL, fetching or revalidating it if
+     * needed, or null if it is not available.
+     *
+     * @param url
+     * @return
+     * @throws IOException
+     */
+    private Document get(String url) throws IOException {
+        KeyLock lock = lock(url);
+        try {
+            Document document = load(url);
+            boolean cached = !document.properties.isEmpty();
+            if (offline) {
+                if (!cached) {
+                    logger.warn("Not in the mirror (offline): " + url);
+                }
+                return cached ? document : null;
+            }
+            if (cached && !isStale(document)) {
+                touch(document);
+                return document;
+            }
+
+            try {
+                return fetch(url, document, cached);
+            } catch (IOException e) {
+                if (cached) {
+                    logger.warn("Failed to revalidate " + url + ", using the mirrored copy: " + e.getMessage());
+                    return document;
+                }
+                logger.warn("Failed to fetch " + url + ": " + e.getMessage());
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return cached ? document : null;
+            }
+        } finally {
+            unlock(url, lock);
+        }
+    }
+
+    /**
+     * Return the document of a URL, with its metadata if it is mirrored.
+     */
+    private Document load(String url) throws IOException {
+        String name = sha256(url);
+        Document document = new Document(dir.resolve(name), dir.resolve(name + ".properties"));
+        if (Files.exists(document.data) && Files.exists(document.meta)) {
+            try (Reader reader = Files.newBufferedReader(document.meta, StandardCharsets.UTF_8)) {
+                document.properties.load(reader);
+            }
+            document.contentType = document.properties.getProperty("contentType");
+        }
+        return document;
+    }
+
+    private boolean isStale(Document document) {
+        if (ttl == null) {
+            return false;
+        }
+        long fetched = Long.parseLong(document.properties.getProperty("fetched", "0"));
+        return System.currentTimeMillis() - fetched > ttl.toMillis();
+    }
+
+    private Document fetch(String url, Document document, boolean cached) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .header("Accept", WebContent.defaultRDFAcceptHeader)
+                .timeout(Duration.ofMinutes(5));
+        if (cached) {
+            String etag = document.properties.getProperty("etag");
+            String lastModified = document.properties.getProperty("lastModified");
+            if (etag != null) {
+                request.header("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                request.header("If-Modified-Since", lastModified);
+            }
+        }
+
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, "fetch", ".tmp");
+        try {
+            HttpResponse<Path> response = client.send(request.build(), HttpResponse.BodyHandlers.ofFile(tmp));
+            int status = response.statusCode();
+            if (status == 304 && cached) {
+                document.properties.setProperty("fetched", String.valueOf(System.currentTimeMillis()));
+                writeMeta(document);
+                logger.info("Revalidated " + url);
+                return document;
+            }
+            if (status != 200) {
+                throw new IOException("HTTP " + status);
+            }
+
+            document.contentType = response.headers().firstValue("Content-Type").orElse(null);
+            document.properties.clear();
+            document.properties.setProperty("url", url);
+            document.properties.setProperty("fetched", String.valueOf(System.currentTimeMillis()));
+            if (document.contentType != null) {
+                document.properties.setProperty("contentType", document.contentType);
+            }
+            response.headers().firstValue("ETag").ifPresent(v -> document.properties.setProperty("etag", v));
+            response.headers().firstValue("Last-Modified")
+                    .ifPresent(v -> document.properties.setProperty("lastModified", v));
+
+            Files.move(tmp, document.data, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            writeMeta(document);
+            document.modified = true;
+            logger.info("Mirrored " + url + " (" + Files.size(document.data) + " bytes)");
+            if (!cached) {
+                evict();
+            }
+            return document;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private KeyLock lock(String url) {
+        KeyLock lock = locks.compute(url, (k, l) -> {
+            l = l != null ? l : new KeyLock();
+            l.users++;
+            return l;
+        });
+        lock.lock.lock();
+        return lock;
+    }
+
+    private void unlock(String url, KeyLock lock) {
+        lock.lock.unlock();
+        locks.compute(url, (k, l) -> --l.users == 0 ? null : l);
+    }
+
+    /**
+     * Mark a document as read now, for {@link #evict()}.
+     */
+    private void touch(Document document) {
+        try {
+            Files.setLastModifiedTime(document.meta, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            logger.warn("Failed to touch " + document.meta + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Remove the least recently read documents while there are more than
+     * {@code maxEntries}.
+     */
+    private void evict() {
+        List<Path> metas;
+        try (Stream<Path> files = Files.list(dir)) {
+            metas = files.filter(file -> file.getFileName().toString().endsWith(".properties"))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            logger.warn("Failed to list the mirror: " + e.getMessage());
+            return;
+        }
+        if (metas.size() <= maxEntries) {
+            return;
+        }
+        metas.sort(Comparator.comparing(OntologyMirror::lastModified));
+        for (Path meta : metas.subList(0, metas.size() - maxEntries)) {
+            String name = meta.getFileName().toString();
+            try {
+                // The document is fetched again if it is read later
+                Files.deleteIfExists(meta);
+                Files.deleteIfExists(meta.resolveSibling(name.substring(0, name.length() - ".properties".length())));
+                logger.info("Evicted " + name + " from the mirror");
+            } catch (IOException e) {
+                logger.warn("Failed to evict " + name + " from the mirror: " + e.getMessage());
+            }
+        }
+    }
+
+    static private FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private void writeMeta(Document document) throws IOException {
+        Path tmp = Files.createTempFile(dir, "meta", ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                document.properties.store(writer, null);
+            }
+            Files.move(tmp, document.meta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    static private String sha256(String s) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : hash) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package se.liu.semweb.t4v;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import se.liu.semweb.t4v.owl2shacl.OWL2SHACL;
+
+/**
+ * Loads the schemas and converts the ontologies that are expected to be asked
+ * for when the server starts, so that the first requests for them are served
+ * from the caches, and the code paths they take have been loaded and compiled.
+ *
+ * Schemas (for {@code /api/types}) and ontologies (for
+ * {@code /api/owl2shacl}, in the default mode and Turtle) are listed as
+ * comma-separated URLs in {@code t4v.prewarm.schemas} and
+ * {@code t4v.prewarm.ontologies}. With {@code t4v.prewarm.rounds} above 1, they
+ * are reasoned over and converted that many times in all, to give the JIT
+ * compiler more to work with. Spring Boot only reports the server as ready
+ * (see {@code /actuator/health/readiness}) once this is done. A document that
+ * fails to load is logged and skipped.
+ *
+ * With {@code t4v.prewarm.exit=true} the server exits when it is done, which is
+ * how the classes it loaded are recorded in a class data sharing archive (see
+ * {@code cds.sh}).
+ */
+@Component
+public class Prewarm implements ApplicationRunner {
+    static private Logger logger = LoggerFactory.getLogger(Prewarm.class);
+
+    static private final List<String> schemas = list(System.getProperty("t4v.prewarm.schemas"));
+    static private final List<String> ontologies = list(System.getProperty("t4v.prewarm.ontologies"));
+    static private final int rounds = Integer.getInteger("t4v.prewarm.rounds", 1);
+    static private final boolean exit = Boolean.getBoolean("t4v.prewarm.exit");
+
+    private final ConfigurableApplicationContext context;
+
+    public Prewarm(ConfigurableApplicationContext context) {
+        this.context = context;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long start = System.currentTimeMillis();
+        for (String schema : schemas) {
+            prewarm("schema " + schema, () -> {
+                SchemaCache.Entry entry = SchemaCache.get(schema);
+                infer(entry);
+                if (rounds > 1) {
+                    Model model = InferenceEngine.read(schema);
+                    for (int i = 1; i < rounds; i++) {
+                        infer(SchemaCache.prepare(model));
+                    }
+                }
+            });
+        }
+        for (String url : ontologies) {
+            prewarm("ontology " + url, () -> {
+                ShaclCache.write(url, null, false, Lang.TURTLE, Server.turtleType, out -> out,
+                        OutputStream.nullOutputStream());
+                if (rounds > 1) {
+                    Model base = OWL2SHACL.load(url);
+                    for (int i = 1; i < rounds; i++) {
+                        OWL2SHACL.owl2shacl(base, null, false, Lang.TURTLE, OutputStream.nullOutputStream());
+                    }
+                }
+            });
+        }
+        if (!schemas.isEmpty() || !ontologies.isEmpty()) {
+            logger.info("Prewarmed " + schemas.size() + " schemas and " + ontologies.size() + " ontologies in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        }
+
+        if (exit) {
+            System.exit(SpringApplication.exit(context));
+        }
+    }
+
+    /**
+     * Work that prewarms a document.
+     */
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    static private void prewarm(String name, Task task) {
+        try {
+            // Each document has the reasoning budget of a request
+            Budget.create().run(() -> {
+                task.run();
+                return null;
+            });
+        } catch (RuntimeException e) {
+            logger.warn("Failed to prewarm " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Infer the classes of a resource without data, which takes the same code
+     * path as a request.
+     */
+    static private void infer(SchemaCache.Entry entry) {
+        InferenceEngine.getInferredClasses(ModelFactory.createDefaultModel(), entry, "urn:t4v:prewarm", null);
+    }
+
+    static private List<String> list(String value) {
+        List<String> list = new ArrayList<>();
+        if (value != null) {
+            for (String item : value.split(",")) {
+                if (!item.isBlank()) {
+                    list.add(item.trim());
+                }
+            }
+        }
+        return list;
+    }
+}
@@ -0,0 +1,130 @@
+package se.liu.semweb.t4v;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+
+/**
+ * Detection of the RDF syntax of an input. An explicit syntax name or media
+ * type is used when given, otherwise the syntax is sniffed from the beginning
+ * of the input, so that the input only has to be parsed once.
+ */
+public class RDFSyntax {
+    // Number of characters inspected when sniffing
+    static public final int headSize = 4096;
+
+    // An element with an attribute (e.g., xmlns), which an IRI in Turtle or
+    // N-Triples (e.g., <urn:a> or <a>) cannot be mistaken for
+    static private final Pattern xmlElement = Pattern
+            .compile("^<[A-Za-z_][\\w.-]*(:[A-Za-z_][\\w.-]*)?\\s+[A-Za-z_][\\w.:-]*\\s*=.*", Pattern.DOTALL);
+
+    /**
+     * Return the syntax of an input given an optional syntax name or media type
+     * (e.g., "TTL", "JSON-LD" or "application/rdf+xml") and the beginning of the
+     * input.
+     *
+     * @param hint
+     * @param head
+     * @return
+     */
+    static public Lang detect(String hint, CharSequence head) {
+        Lang lang = fromHint(hint);
+        return lang != null ? lang : sniff(head);
+    }
+
+    /**
+     * Return the syntax named by a syntax name or media type, or null if none is
+     * given. Unknown names are rejected.
+     *
+     * @param hint
+     * @return
+     */
+    static public Lang fromHint(String hint) {
+        if (hint == null || hint.isBlank()) {
+            return null;
+        }
+        String name = hint.split(";")[0].trim();
+        if (name.equalsIgnoreCase("text/plain") || name.equalsIgnoreCase("application/octet-stream")) {
+            return null;
+        }
+        if (name.equalsIgnoreCase("application/json")) {
+            return Lang.JSONLD;
+        }
+        Lang lang = RDFLanguages.nameToLang(name);
+        if (lang == null) {
+            throw new IllegalArgumentException("Unknown RDF syntax: " + hint);
+        }
+        return lang;
+    }
+
+    /**
+     * Guess the syntax from the beginning of an input: RDF/XML for XML
+     * documents (that start with a declaration, a comment or an element with
+     * attributes), JSON-LD or RDF/JSON for JSON documents, and Turtle (which
+     * includes N-Triples) otherwise.
+     *
+     * @param head
+     * @return
+     */
+    static public Lang sniff(CharSequence head) {
+        String s = skipWhitespaceAndComments(head);
+        if (s.startsWith("<?") || s.startsWith("<!") || xmlElement.matcher(s).matches()) {
+            return Lang.RDFXML;
+        }
+        if (s.startsWith("[")) {
+            return Lang.JSONLD;
+        }
+        if (s.startsWith("{")) {
+            if (s.contains("\"@context\"") || s.contains("\"@id\"") || s.contains("\"@graph\"")
+                    || s.contains("\"@type\"")) {
+                return Lang.JSONLD;
+            }
+            if (s.contains("\"type\"") && s.contains("\"value\"")) {
+                return Lang.RDFJSON;
+            }
+            return Lang.JSONLD;
+        }
+        return Lang.TURTLE;
+    }
+
+    /**
+     * Guess the syntax from the beginning of a stream. The stream is reset to
+     * where it was, so that it can be parsed from the start.
+     *
+     * @param in
+     * @return
+     */
+    static public Lang sniff(BufferedInputStream in) {
+        try {
+            in.mark(headSize);
+            byte[] head = in.readNBytes(headSize);
+            in.reset();
+            return sniff(new String(head, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static private String skipWhitespaceAndComments(CharSequence head) {
+        int i = 0;
+        int n = Math.min(head.length(), headSize);
+        while (i < n) {
+            char c = head.charAt(i);
+            if (c == '\uFEFF' || Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '#') {
+                while (i < n && head.charAt(i) != '\n') {
+                    i++;
+                }
+            } else {
+                break;
+            }
+        }
+        return head.subSequence(i, n).toString();
+    }
+}
@@ -0,0 +1,336 @@
+package se.liu.semweb.t4v;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.reasoner.Reasoner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+
+/**
+ * Bounded cache of prepared schemas. Each entry holds an OWL micro reasoner
+ * that has already been bound to (and has reasoned over) the schema, so that a
+ * request only needs to add its own data on top.
+ *
+ * Schemas given as a URI are keyed by the URI, inline schemas by a SHA-256 hash
+ * of their text. Schemas given as a URI are read and prepared again once they
+ * are older than {@code t4v.schemaCache.ttl} seconds; if that fails, the
+ * prepared schema is used for another period. Concurrent requests for a schema
+ * that is not cached wait for one of them to prepare it. The cache is bounded both by the number of entries and by the
+ * total number of schema triples held; least recently used entries are evicted
+ * first. Limits are configured with the system properties
+ * {@code t4v.schemaCache.maxEntries} and {@code t4v.schemaCache.maxTriples}.
+ * The number of entries and triples held are exported as the gauges
+ * {@code t4v.cache.entries} and {@code t4v.cache.triples}.
+ */
+public class SchemaCache {
+    static private Logger logger = LoggerFactory.getLogger(SchemaCache.class);
+
+    static private final int maxEntries = Integer.getInteger("t4v.schemaCache.maxEntries", 64);
+    static private final long maxTriples = Long.getLong("t4v.schemaCache.maxTriples", 2_000_000L);
+    static private final long ttl = Long.getLong("t4v.schemaCache.ttl", 60L) * 1000;
+
+    static private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    static private long triples = 0;
+
+    // Schemas being prepared by key, so that concurrent misses prepare a
+    // schema once. They complete with the prepared schema, or with null if
+    // preparing it failed, in which case a waiter prepares it itself.
+    static private final ConcurrentHashMap<String, CompletableFuture<Entry>> pending = new ConcurrentHashMap<>();
+
+    static {
+        Metrics.gauge("t4v.cache.entries", Tags.of("cache", "schema"), entries, Map::size);
+        Metrics.gauge("t4v.cache.triples", Tags.of("cache", "schema"), entries, e -> triples);
+    }
+
+    /**
+     * A schema prepared for reasoning.
+     */
+    static public class Entry {
+        private final Model schema;
+        private final Reasoner reasoner;
+        private final long size;
+        private final TypeClosure closure;
+        private Reasoner goalReasoner;
+        private volatile long expires = Long.MAX_VALUE;
+
+        Entry(Model schema, Reasoner reasoner, TypeClosure closure) {
+            this.schema = schema;
+            this.reasoner = reasoner;
+            this.closure = closure;
+            this.size = schema.size();
+        }
+
+        /**
+         * Return the schema model with its inferences materialized.
+         *
+         * @return
+         */
+        public Model getSchema() {
+            return schema;
+        }
+
+        /**
+         * Return a reasoner bound to the schema.
+         *
+         * @return
+         */
+        public Reasoner getReasoner() {
+            return reasoner;
+        }
+
+        /**
+         * Return a goal-directed reasoner bound to the schema, or the reasoner
+         * bound to the schema if the schema uses constructs that the
+         * goal-directed rules do not cover (see {@link GoalInference#covers(Model)}).
+         *
+         * @return
+         */
+        public synchronized Reasoner getGoalReasoner() {
+            if (goalReasoner == null) {
+                if (GoalInference.covers(schema)) {
+                    goalReasoner = GoalInference.createReasoner(schema);
+                } else {
+                    logger.info("Goal-directed inference does not cover the schema, using the reasoner");
+                    goalReasoner = reasoner;
+                }
+            }
+            return goalReasoner;
+        }
+
+        /**
+         * Return the precomputed type closure of the schema, or null if the
+         * schema uses constructs beyond the class and property hierarchies.
+         *
+         * @return
+         */
+        public TypeClosure getClosure() {
+            return closure;
+        }
+
+        /**
+         * Return the number of schema triples.
+         *
+         * @return
+         */
+        public long size() {
+            return size;
+        }
+    }
+
+    /**
+     * Return the prepared schema for a schema string (URI or RDF document),
+     * loading and binding it if it is not already cached.
+     *
+     * @param schema
+     * @return
+     */
+    static public Entry get(String schema) {
+        return get(schema, (String) null);
+    }
+
+    /**
+     * Return the prepared schema for a schema string (URI or RDF document) in
+     * the given syntax, loading and binding it if it is not already cached.
+     *
+     * @param schema
+     * @param syntax
+     * @return
+     */
+    static public Entry get(String schema, String syntax) {
+        return get(key(schema), () -> InferenceEngine.read(schema, syntax));
+    }
+
+    /**
+     * Return the prepared schema for a cache key, loading the schema model with
+     * the loader and binding it if it is not already cached.
+     *
+     * @param key
+     * @param loader
+     * @return
+     */
+    static public Entry get(String key, Supplier<Model> loader) {
+        Entry entry = getIfCurrent(key);
+        Timing.cache("schema", entry != null);
+        while (entry == null) {
+            CompletableFuture<Entry> prepared = new CompletableFuture<>();
+            CompletableFuture<Entry> other = pending.putIfAbsent(key, prepared);
+            if (other == null) {
+                return load(key, loader, prepared);
+            }
+            entry = other.join();
+        }
+        return entry;
+    }
+
+    static private Entry getIfCurrent(String key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            return entry != null && System.currentTimeMillis() < entry.expires ? entry : null;
+        }
+    }
+
+    /**
+     * Load and prepare the schema for a key, cache it, and complete the
+     * pending preparation of the key.
+     */
+    static private Entry load(String key, Supplier<Model> loader, CompletableFuture<Entry> prepared) {
+        Entry entry = null;
+        try {
+            // Prepared by a request that finished in the meantime
+            entry = getIfCurrent(key);
+            if (entry != null) {
+                return entry;
+            }
+            Entry expired;
+            synchronized (entries) {
+                expired = entries.get(key);
+            }
+
+            // Loading may block on remote fetches, preparing is CPU-bound
+            Model schema;
+            try {
+                schema = loader.get();
+            } catch (RuntimeException e) {
+                if (expired == null) {
+                    throw e;
+                }
+                logger.warn("Failed to read schema " + key + " again, using the prepared schema: " + e.getMessage());
+                expired.expires = expiry(key);
+                entry = expired;
+                return entry;
+            }
+            Timing.triples("schema", InferenceEngine.size(schema));
+            Entry loaded = Timing.time("schema", () -> Workers.reason(() -> prepare(schema)));
+            loaded.expires = expiry(key);
+            logger.info("Prepared schema " + key + " (" + loaded.size() + " triples)");
+
+            synchronized (entries) {
+                // Schemas larger than the whole budget are used once and not retained
+                if (loaded.size() <= maxTriples) {
+                    Entry previous = entries.put(key, loaded);
+                    if (previous != null) {
+                        triples -= previous.size();
+                    }
+                    triples += loaded.size();
+                    evict();
+                } else if (entries.remove(key, expired)) {
+                    triples -= expired.size();
+                }
+            }
+            entry = loaded;
+            return entry;
+        } finally {
+            prepared.complete(entry);
+            pending.remove(key, prepared);
+        }
+    }
+
+    /**
+     * Return the time at which a schema prepared now for a key expires.
+     */
+    static private long expiry(String key) {
+        return key.startsWith("url:") && ttl >= 0 ? System.currentTimeMillis() + ttl : Long.MAX_VALUE;
+    }
+
+    /**
+     * Prepare a schema model for reasoning. The inferences of the schema are
+     * materialized once and a reasoner is bound to the result, which gives the
+     * same answers as reasoning over the data and schema inference models
+     * combined.
+     *
+     * @param schema
+     * @return
+     */
+    static public Entry prepare(Model schema) {
+        Model tbox = ModelFactory.createDefaultModel()
+                .add(ModelFactory.createOntologyModel(BudgetedReasoner.OWL_MEM_MICRO_RULE_INF, schema));
+        Reasoner reasoner = BudgetedReasoner.get().bindSchema(tbox);
+        return new Entry(tbox, reasoner, TypeClosure.compile(schema, reasoner));
+    }
+
+    /**
+     * Remove all cached schemas.
+     */
+    static public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            triples = 0;
+        }
+    }
+
+    static private void evict() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || triples > maxTriples) && entries.size() > 1 && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            triples -= eldest.getValue().size();
+            it.remove();
+            logger.info("Evicted schema " + eldest.getKey());
+        }
+    }
+
+    /**
+     * Return the cache key of a schema string.
+     *
+     * @param schema
+     * @return
+     */
+    static public String key(String schema) {
+        if (InferenceEngine.isURI(schema)) {
+            return "url:" + schema;
+        }
+        return "sha256:" + sha256(schema);
+    }
+
+    /**
+     * Return the cache key of a schema document read from a stream. The key is
+     * the same as for the document's (UTF-8) text.
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    static public String key(InputStream in) throws IOException {
+        MessageDigest digest = digest();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, n);
+        }
+        return "sha256:" + hex(digest.digest());
+    }
+
+    static private String sha256(String s) {
+        return hex(digest().digest(s.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    static private MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static private String hex(byte[] hash) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : hash) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -1,52 +1,508 @@
 package se.liu.semweb.t4v;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
 
+import org.apache.jena.atlas.RuntimeIOException;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.shacl.ShaclValidator;
+import org.apache.jena.shacl.Shapes;
+import org.apache.jena.shacl.ValidationReport;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import se.liu.semweb.t4v.owl2shacl.OWL2SHACL;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.Part;
+import se.liu.semweb.t4v.owl2shacl.Conversion;
 
 @SpringBootApplication
 @RestController
 public class Server {
+    // Formats of /api/owl2shacl, in the order they are chosen for wildcards
+    static private final List<MediaType> shaclTypes = MediaType.parseMediaTypes(
+            "text/turtle, application/json, application/n-triples, application/rdf+thrift, application/rdf+protobuf");
+
+    // Content type of Turtle responses of /api/owl2shacl, part of their cache key
+    static final String turtleType = "text/turtle;charset=UTF-8";
+
+    // Longest long poll of a job, in seconds
+    static private final long maxWait = Long.getLong("t4v.jobs.maxWait", 60L);
 
     public static void main(String[] args) {
+        OntologyMirror.install();
         SpringApplication.run(Server.class, args);
     }
 
     @PostMapping("/api/types")
     public String getClasses(@RequestBody Message message) {
-        List<String> list = InferenceEngine.getInferredClasses(message.getData(), message.getSchema(),
-                message.getTarget());
+        List<String> list = InferenceEngine.getInferredClasses(message);
         Gson gson = new GsonBuilder().setPrettyPrinting().create();
         return gson.toJson(list);
     }
 
-    @GetMapping(value = "/api/owl2shacl", produces = {"text/turtle", "application/json"})
-    public String getOwl2Shacl(@RequestParam(name = "url", required = true) String url, @RequestHeader Map<String, String> headers) {
-        String result = OWL2SHACL.owl2shacl(url);
+    @PostMapping(value = "/api/types", consumes = { "text/turtle", "application/n-triples", "text/n3",
+            "application/rdf+xml", "application/ld+json", "application/rdf+json", "application/rdf+thrift",
+            "application/rdf+protobuf" })
+    public String getClassesRaw(InputStream data, @RequestHeader("Content-Type") String contentType,
+            @RequestParam(name = "schema", required = true) String schema,
+            @RequestParam(name = "schemaSyntax", required = false) String schemaSyntax,
+            @RequestParam(name = "target", required = true) String target,
+            @RequestParam(name = "mode", required = false) String mode) {
+        InferenceEngine.checkMode(mode);
+        SchemaCache.Entry entry = SchemaCache.get(schema, schemaSyntax);
+        Model dataModel = InferenceEngine.read(data, contentType);
+        List<String> list = InferenceEngine.getInferredClasses(dataModel, entry, target, mode);
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        return gson.toJson(list);
+    }
 
-        String acceptHeader = headers.get("accept");
-        if (acceptHeader != null && acceptHeader.equals("application/json")) {
-            // JSON
-            Map<String, String> map = new HashMap<>();
-            map.put("result", result);
-            Gson gson = new GsonBuilder().setPrettyPrinting().create();
-            return gson.toJson(map);
+    @PostMapping(value = "/api/types", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public String getClassesMultipart(@RequestPart("data") Part data, @RequestPart("schema") Part schema,
+            @RequestParam(name = "target", required = true) String target,
+            @RequestParam(name = "mode", required = false) String mode) throws IOException {
+        InferenceEngine.checkMode(mode);
+        SchemaCache.Entry entry;
+        if (schema.getSubmittedFileName() == null && schema.getSize() < 4096) {
+            // Plain form field, e.g. the URL of the schema
+            String value = new String(schema.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            entry = SchemaCache.get(value, schema.getContentType());
         } else {
-            // Plain text
-            return result;
+            String key;
+            try (InputStream in = schema.getInputStream()) {
+                key = SchemaCache.key(in);
+            }
+            entry = SchemaCache.get(key, () -> {
+                try (InputStream in = schema.getInputStream()) {
+                    return InferenceEngine.read(in, schema.getContentType());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+
+        Model dataModel;
+        try (InputStream in = data.getInputStream()) {
+            dataModel = InferenceEngine.read(in, data.getContentType());
+        }
+        List<String> list = InferenceEngine.getInferredClasses(dataModel, entry, target, mode);
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        return gson.toJson(list);
+    }
+
+    @PostMapping(value = "/api/types/batch", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> getClassesBatch(@RequestBody Message message) {
+        InferenceEngine.TypeResolver resolver = InferenceEngine.getTypeResolver(message);
+        List<String> targets = message.getTargets() != null ? message.getTargets() : resolver.getSubjects();
+        // The body is written on another thread
+        Budget budget = Budget.current();
+        Timing timing = Timing.current();
+
+        // Targets are evaluated in parallel on the reasoning workers, and
+        // written in order on this thread as soon as they are done
+        StreamingResponseBody body = out -> {
+            Gson gson = new Gson();
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            try {
+                budget.run(() -> Timing.run(timing, () -> {
+                    Workers.forEach(targets, target -> Map.entry(target, resolver.getTypes(target)), result -> {
+                        Map<String, Object> map = new LinkedHashMap<>();
+                        map.put("target", result.getKey());
+                        map.put("types", result.getValue());
+                        try {
+                            writer.write(gson.toJson(map) + "\n");
+                            writer.flush();
+                        } catch (IOException e) {
+                            // The client went away, stop working on the other targets
+                            budget.cancel("client disconnected");
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    return null;
+                }));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } catch (BudgetExceededException e) {
+                // Too late for an error status
+                Map<String, Object> map = new LinkedHashMap<>();
+                map.put("error", e.getMessage());
+                writer.write(gson.toJson(map) + "\n");
+                writer.flush();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("application/x-ndjson")).body(body);
+    }
+
+    @PostMapping("/api/sessions")
+    public ResponseEntity<String> createSession(@RequestBody Message message) {
+        Session session = Sessions.create(message);
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("id", session.getId());
+        map.put("triples", session.size());
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        return ResponseEntity.status(HttpStatus.CREATED).contentType(MediaType.APPLICATION_JSON)
+                .body(gson.toJson(map));
+    }
+
+    @PostMapping("/api/sessions/{id}/delta")
+    public String applyDelta(@PathVariable("id") String id, @RequestBody Delta delta) {
+        Session session = getSession(id);
+        Model add = parseDelta(delta.getAdd(), delta.getSyntax());
+        Model remove = parseDelta(delta.getRemove(), delta.getSyntax());
+        int[] counts = Workers.reason(() -> session.apply(add, remove));
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("added", counts[0]);
+        map.put("removed", counts[1]);
+        map.put("triples", session.size());
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        return gson.toJson(map);
+    }
+
+    @GetMapping("/api/sessions/{id}/types")
+    public String getSessionClasses(@PathVariable("id") String id,
+            @RequestParam(name = "target", required = true) String target) {
+        Session session = getSession(id);
+        List<String> list = Workers.reason(() -> session.getTypes(target));
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        return gson.toJson(list);
+    }
+
+    @DeleteMapping("/api/sessions/{id}")
+    public ResponseEntity<Void> deleteSession(@PathVariable("id") String id) {
+        if (!Sessions.remove(id)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown session: " + id);
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    private static Session getSession(String id) {
+        Session session = Sessions.get(id);
+        if (session == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown session: " + id);
+        }
+        return session;
+    }
+
+    private static Model parseDelta(String triples, String syntax) {
+        if (triples == null || triples.isBlank()) {
+            return null;
+        }
+        Model model = ModelFactory.createDefaultModel();
+        InferenceEngine.parse(model, triples, syntax);
+        return model;
+    }
+
+    @PostMapping(value = "/api/validate", produces = "application/json")
+    public String validate(@RequestBody Validation validation) throws IOException {
+        ValidationReport report = validateReport(validation);
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("conforms", report.conforms());
+        List<Map<String, Object>> results = new ArrayList<>();
+        report.getEntries().forEach(entry -> {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("focusNode", toString(entry.focusNode()));
+            if (entry.resultPath() != null) {
+                result.put("path", entry.resultPath().toString());
+            }
+            if (entry.value() != null) {
+                result.put("value", toString(entry.value()));
+            }
+            result.put("severity", toString(entry.severity().level()));
+            result.put("sourceShape", toString(entry.source()));
+            result.put("sourceConstraintComponent", toString(entry.sourceConstraintComponent()));
+            result.put("message", entry.message());
+            results.add(result);
+        });
+        map.put("results", results);
+        Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+        return gson.toJson(map);
+    }
+
+    @PostMapping(value = "/api/validate", produces = "text/turtle")
+    public ResponseEntity<String> validateAsTurtle(@RequestBody Validation validation) throws IOException {
+        ValidationReport report = validateReport(validation);
+        StringWriter writer = new StringWriter();
+        RDFDataMgr.write(writer, report.getModel(), Lang.TURTLE);
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(turtleType)).body(writer.toString());
+    }
+
+    /**
+     * Validate the data of a request against the shapes of an ontology or a
+     * shapes document, compiled once and kept by the {@link ShapesCache}. Data
+     * is validated against the shapes of an ontology together with the class
+     * hierarchy of the ontology.
+     */
+    private static ValidationReport validateReport(Validation validation) throws IOException {
+        if (validation.getData() == null) {
+            throw new IllegalArgumentException("No data to validate");
+        }
+        if ((validation.getOntology() == null) == (validation.getShapes() == null)) {
+            throw new IllegalArgumentException("Either an ontology or shapes must be given");
+        }
+        String mode = validation.getMode();
+        if (mode != null && !mode.equals("reasoner") && !mode.equals("hierarchy")) {
+            throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+        ShapesCache.Entry shapes = validation.getOntology() != null
+                ? ShapesCache.forOntology(validation.getOntology(), mode)
+                : ShapesCache.forDocument(validation.getShapes(), validation.getShapesSyntax());
+        Model data = InferenceEngine.read(validation.getData(), validation.getSyntax());
+        // Reading the data checks the budget, like the reasoners do
+        Graph graph = shapes.withHierarchy(Budget.watch(data.getGraph()));
+        return Timing.time("validate",
+                () -> Workers.reason(() -> ShaclValidator.get().validate(shapes.getShapes(), graph)));
+    }
+
+    private static String toString(Node node) {
+        if (node == null) {
+            return null;
+        }
+        if (node.isURI()) {
+            return node.getURI();
+        }
+        if (node.isLiteral()) {
+            return node.getLiteralLexicalForm();
+        }
+        return node.toString();
+    }
+
+    @ExceptionHandler(BudgetExceededException.class)
+    public ResponseEntity<String> handleBudgetExceeded(BudgetExceededException e) {
+        return ResponseEntity.unprocessableEntity().contentType(MediaType.TEXT_PLAIN).body(e.getMessage());
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> handleBadRequest(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN).body(e.getMessage());
+    }
+
+    @GetMapping(value = "/api/owl2shacl", produces = { "text/turtle", "application/json", "application/n-triples",
+            "application/rdf+thrift", "application/rdf+protobuf" })
+    public void getOwl2Shacl(@RequestParam(name = "url", required = true) String url,
+            @RequestParam(name = "mode", required = false) String mode,
+            @RequestParam(name = "shapesOnly", required = false, defaultValue = "false") boolean shapesOnly,
+            @RequestHeader Map<String, String> headers, HttpServletResponse response) throws IOException {
+        if (mode != null && !mode.equals("reasoner") && !mode.equals("hierarchy")) {
+            throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+        ShaclFormat format = ShaclFormat.negotiate(headers.get("accept"));
+        boolean json = format.json();
+        Lang lang = format.lang();
+        String contentType = format.contentType();
+        Function<OutputStream, OutputStream> render = format.render();
+
+        String acceptEncoding = headers.get("accept-encoding");
+        boolean acceptsGzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        response.setHeader("Vary", "Accept, Accept-Encoding");
+
+        ShaclCache.Entry entry = ShaclCache.getIfPresent(url, mode, shapesOnly, contentType);
+        if (entry == null) {
+            // Written once converted (or, if too large to cache, as node
+            // shapes are generated), the ETag is only known to later requests
+            response.setContentType(contentType);
+            OutputStream out = response.getOutputStream();
+            if (acceptsGzip) {
+                response.setHeader("Content-Encoding", "gzip");
+                out = new GZIPOutputStream(out, true);
+            }
+            try {
+                ShaclCache.write(url, mode, shapesOnly, lang, contentType, render, out);
+            } catch (IllegalArgumentException e) {
+                if (!json && !lang.equals(Lang.TURTLE)) {
+                    // The message cannot be sent in the syntax
+                    response.reset();
+                    throw e;
+                }
+                // Not cached, the ontology may become available
+                try (OutputStream rendered = render.apply(out)) {
+                    rendered.write(e.getMessage().getBytes(StandardCharsets.UTF_8));
+                }
+                return;
+            } catch (IOException | RuntimeIOException e) {
+                // The client went away
+                Budget.current().cancel("client disconnected");
+                throw e;
+            } catch (RuntimeException e) {
+                // Let the exception handlers respond if nothing has been sent
+                if (!response.isCommitted()) {
+                    response.reset();
+                }
+                throw e;
+            }
+            out.close();
+            return;
+        }
+
+        writeEntry(entry, headers, response);
+    }
+
+    /**
+     * Write a serialized {@code /api/owl2shacl} result, compressed if the
+     * client accepts gzip, or respond with 304 Not Modified if the client
+     * already has it.
+     */
+    private static void writeEntry(ShaclCache.Entry entry, Map<String, String> headers,
+            HttpServletResponse response) throws IOException {
+        String acceptEncoding = headers.get("accept-encoding");
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip") && entry.getGzip() != null;
+        response.setHeader("ETag", gzip ? entry.getGzipETag() : entry.getETag());
+        if (entry.matches(headers.get("if-none-match"))) {
+            response.setStatus(HttpStatus.NOT_MODIFIED.value());
+            return;
+        }
+        response.setContentType(entry.getContentType());
+        byte[] body = entry.getBody();
+        if (gzip) {
+            response.setHeader("Content-Encoding", "gzip");
+            body = entry.getGzip();
+        }
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    @GetMapping(value = "/api/owl2shacl/changes", produces = "application/json")
+    public String getOwl2ShaclChanges(@RequestParam(name = "url", required = true) String url,
+            @RequestParam(name = "mode", required = false) String mode) {
+        Conversion.Changes changes = ShaclCache.getChanges(url, mode);
+        if (changes == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No conversion kept for " + url);
         }
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        return gson.toJson(changes);
+    }
+
+    @PostMapping(value = "/api/owl2shacl/jobs", produces = "application/json")
+    public ResponseEntity<String> submitOwl2ShaclJob(@RequestParam(name = "url", required = true) String url,
+            @RequestParam(name = "mode", required = false) String mode,
+            @RequestParam(name = "shapesOnly", required = false, defaultValue = "false") boolean shapesOnly,
+            @RequestHeader Map<String, String> headers) {
+        if (mode != null && !mode.equals("reasoner") && !mode.equals("hierarchy")) {
+            throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+        ShaclFormat format = ShaclFormat.negotiate(headers.get("accept"));
+        Jobs.Job job = Jobs.submit(url, mode, shapesOnly, format.lang(), format.contentType(), format.render());
+        if (job == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many conversion jobs");
+        }
+        Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+        return ResponseEntity.status(HttpStatus.ACCEPTED).location(URI.create("/api/owl2shacl/jobs/" + job.getId()))
+                .contentType(MediaType.APPLICATION_JSON).body(gson.toJson(job.toMap()));
+    }
 
+    @GetMapping(value = "/api/owl2shacl/jobs/{id}", produces = "application/json")
+    public CompletableFuture<String> getOwl2ShaclJob(@PathVariable("id") String id,
+            @RequestParam(name = "wait", required = false, defaultValue = "0") long wait) {
+        Jobs.Job job = getJob(id);
+        // Long polls are answered when the job finishes, without holding a thread
+        return job.await(Math.max(0, Math.min(wait, maxWait))).thenApply(j -> {
+            Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+            return gson.toJson(j.toMap());
+        });
+    }
+
+    @GetMapping("/api/owl2shacl/jobs/{id}/result")
+    public void getOwl2ShaclJobResult(@PathVariable("id") String id, @RequestHeader Map<String, String> headers,
+            HttpServletResponse response) throws IOException {
+        Jobs.Job job = getJob(id);
+        if ("failed".equals(job.getStatus())) {
+            throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY, job.getError());
+        }
+        ShaclCache.Entry entry = job.getResult();
+        if (entry == null) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Job " + id + " is " + job.getStatus());
+        }
+        writeEntry(entry, headers, response);
+    }
+
+    private static Jobs.Job getJob(String id) {
+        Jobs.Job job = Jobs.get(id);
+        if (job == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown job: " + id);
+        }
+        return job;
+    }
+
+    /**
+     * A response format of {@code /api/owl2shacl}: the RDF syntax that shapes
+     * are written in, the content type of the response, and how the written
+     * shapes are rendered into the body.
+     */
+    private record ShaclFormat(boolean json, Lang lang, String contentType,
+            Function<OutputStream, OutputStream> render) {
+
+        /**
+         * Return the format that is most preferred by an Accept header.
+         *
+         * @param accept
+         * @return
+         */
+        static ShaclFormat negotiate(String accept) {
+            MediaType type = negotiateShacl(accept);
+            boolean json = type.equals(MediaType.APPLICATION_JSON);
+            // JSON responses hold the Turtle as a string
+            Lang lang = json ? Lang.TURTLE : RDFLanguages.contentTypeToLang(type.toString());
+            String contentType = lang.equals(Lang.TURTLE) && !json ? turtleType : type.toString();
+            return new ShaclFormat(json, lang, contentType, json ? JsonResultOutputStream::new : out -> out);
+        }
+    }
+
+    /**
+     * Return the format of {@code /api/owl2shacl} that is most preferred by an
+     * Accept header, Turtle if there is none.
+     *
+     * @param accept
+     * @return
+     */
+    private static MediaType negotiateShacl(String accept) {
+        if (accept == null || accept.isBlank()) {
+            return shaclTypes.get(0);
+        }
+        List<MediaType> accepted = new ArrayList<>(MediaType.parseMediaTypes(accept));
+        // Stable, so that types of equal quality keep their order
+        accepted.sort(Comparator.comparingDouble(MediaType::getQualityValue).reversed());
+        for (MediaType type : accepted) {
+            for (MediaType shaclType : shaclTypes) {
+                if (type.getQualityValue() > 0 && type.includes(shaclType)) {
+                    return shaclType;
+                }
+            }
+        }
+        return shaclTypes.get(0);
     }
-}
\ No newline at end of file
+}
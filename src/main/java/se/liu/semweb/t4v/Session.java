@@ -0,0 +1,162 @@
+package se.liu.semweb.t4v;
+
+import java.util.List;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.InfModel;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.reasoner.Reasoner;
+
+/**
+ * An inference session: data and a prepared schema that are kept between
+ * requests, so that edits only send the triples that changed.
+ *
+ * The inference model is created on the first query and maintained from then
+ * on. Added triples are passed to the reasoner, which extends its deductions
+ * incrementally; removed triples make the reasoner recompute its deductions on
+ * the next query (the rule engine does not track what each deduction depends
+ * on). In "goal" mode there are no materialized deductions, only tabled
+ * answers, so both are cheap. Schemas with a precomputed type closure are
+ * answered by lookup as long as the data only contains instance data. Data
+ * with schema statements is reasoned over with the reasoner bound to the
+ * schema in both modes.
+ */
+public class Session {
+    private final String id;
+    private final SchemaCache.Entry entry;
+    private final String mode;
+    private final Model data;
+    private InfModel inf;
+
+    // Number of data triples that are not plain instance data
+    private long schemaTriples;
+
+    // Number of deductions at the last query
+    private long deductions;
+
+    private volatile long lastAccess = System.currentTimeMillis();
+    private volatile long size;
+
+    /**
+     * @param id
+     * @param entry
+     * @param data
+     * @param mode
+     * @throws IllegalArgumentException if the mode is unknown
+     */
+    public Session(String id, SchemaCache.Entry entry, Model data, String mode) {
+        InferenceEngine.checkMode(mode);
+        this.id = id;
+        this.entry = entry;
+        this.mode = mode;
+        this.data = data;
+        data.getGraph().find().forEachRemaining(t -> {
+            if (!TypeClosure.isPlain(t)) {
+                schemaTriples++;
+            }
+        });
+        this.size = data.size();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Add and remove triples. Triples that are added and removed by the same
+     * delta are removed.
+     *
+     * @param add
+     * @param remove
+     * @return the number of triples that were added and removed
+     */
+    public synchronized int[] apply(Model add, Model remove) {
+        touch();
+        Graph graph = inf != null ? inf.getGraph() : data.getGraph();
+        Graph base = data.getGraph();
+        int[] counts = new int[2];
+        if (add != null) {
+            add.getGraph().find().forEachRemaining(t -> {
+                if (!base.contains(t)) {
+                    graph.add(t);
+                    counted(t, 1);
+                    counts[0]++;
+                }
+            });
+        }
+        if (remove != null) {
+            remove.getGraph().find().forEachRemaining(t -> {
+                if (base.contains(t)) {
+                    graph.delete(t);
+                    counted(t, -1);
+                    counts[1]++;
+                }
+            });
+        }
+        size = data.size() + deductions;
+        return counts;
+    }
+
+    /**
+     * Return the inferred classes of a target.
+     *
+     * @param target
+     * @return
+     */
+    public synchronized List<String> getTypes(String target) {
+        touch();
+        TypeClosure closure = entry.getClosure();
+        if (closure != null && schemaTriples == 0) {
+            List<String> list = closure.lookup(data.getGraph(), NodeFactory.createURI(target));
+            if (list != null) {
+                return list;
+            }
+        }
+        Reasoner reasoner = InferenceEngine.getReasoner(entry, mode, () -> schemaTriples == 0);
+        if (inf == null || inf.getReasoner() != reasoner) {
+            inf = InferenceEngine.createInfModel(reasoner, data);
+        }
+        List<String> list;
+        try {
+            list = InferenceEngine.listTypes(inf, target);
+        } catch (BudgetExceededException e) {
+            // Start over at the next query rather than from an aborted state
+            inf = null;
+            throw e;
+        }
+        deductions = reasoner == entry.getReasoner() ? inf.getDeductionsModel().size() : 0;
+        size = data.size() + deductions;
+        return list;
+    }
+
+    /**
+     * Return the approximate number of triples held by the session (data and
+     * deductions).
+     *
+     * @return
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Return the time of the last use of the session, in milliseconds.
+     *
+     * @return
+     */
+    public long getLastAccess() {
+        return lastAccess;
+    }
+
+    private void touch() {
+        lastAccess = System.currentTimeMillis();
+    }
+
+    private void counted(Triple t, int n) {
+        if (!TypeClosure.isPlain(t)) {
+            schemaTriples += n;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package se.liu.semweb.t4v;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jena.rdf.model.Model;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of inference sessions. Sessions that have not been used for
+ * {@code t4v.sessions.idleTimeout} seconds are removed, and the least recently
+ * used sessions are evicted when there are more than
+ * {@code t4v.sessions.maxSessions} sessions or they hold more than
+ * {@code t4v.sessions.maxTriples} triples in total.
+ */
+public class Sessions {
+    static private Logger logger = LoggerFactory.getLogger(Sessions.class);
+
+    static private final int maxSessions = Integer.getInteger("t4v.sessions.maxSessions", 1000);
+    static private final long maxTriples = Long.getLong("t4v.sessions.maxTriples", 10_000_000L);
+    static private final long idleTimeout = Long.getLong("t4v.sessions.idleTimeout", 1800L) * 1000;
+
+    static private final LinkedHashMap<String, Session> sessions = new LinkedHashMap<>(16, 0.75f, true);
+
+    static {
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "session-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, idleTimeout / 10);
+        sweeper.scheduleAtFixedRate(Sessions::evict, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create a session from the data, schema and mode of a message.
+     *
+     * @param message
+     * @return
+     * @throws IllegalArgumentException if the mode is unknown
+     */
+    static public Session create(Message message) {
+        InferenceEngine.checkMode(message.getMode());
+        SchemaCache.Entry entry = SchemaCache.get(message.getSchema(), message.getSchemaSyntax());
+        Model data = InferenceEngine.read(message.getData(), message.getSyntax());
+        Session session = new Session(UUID.randomUUID().toString(), entry, data, message.getMode());
+        synchronized (sessions) {
+            sessions.put(session.getId(), session);
+        }
+        logger.info("Created session " + session.getId() + " (" + session.size() + " triples)");
+        evict();
+        return session;
+    }
+
+    /**
+     * Return a session, or null if there is no such session.
+     *
+     * @param id
+     * @return
+     */
+    static public Session get(String id) {
+        synchronized (sessions) {
+            return sessions.get(id);
+        }
+    }
+
+    /**
+     * Remove a session.
+     *
+     * @param id
+     * @return true if the session existed
+     */
+    static public boolean remove(String id) {
+        synchronized (sessions) {
+            return sessions.remove(id) != null;
+        }
+    }
+
+    /**
+     * Remove idle sessions, and the least recently used sessions while the
+     * limits are exceeded. The most recently used session is always kept.
+     */
+    static public void evict() {
+        long now = System.currentTimeMillis();
+        synchronized (sessions) {
+            long triples = 0;
+            Iterator<Map.Entry<String, Session>> it = sessions.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Session> e = it.next();
+                if (now - e.getValue().getLastAccess() > idleTimeout) {
+                    it.remove();
+                    logger.info("Removed idle session " + e.getKey());
+                } else {
+                    triples += e.getValue().size();
+                }
+            }
+
+            it = sessions.entrySet().iterator();
+            while ((sessions.size() > maxSessions || triples > maxTriples) && sessions.size() > 1 && it.hasNext()) {
+                Map.Entry<String, Session> eldest = it.next();
+                triples -= eldest.getValue().size();
+                it.remove();
+                logger.info("Evicted session " + eldest.getKey());
+            }
+        }
+    }
+}
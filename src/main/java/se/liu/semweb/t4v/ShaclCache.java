@@ -0,0 +1,735 @@
+package se.liu.semweb.t4v;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.ontology.OntDocumentManager;
+import org.apache.jena.ontology.OntModelSpec;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.atlas.web.TypedInputStream;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.system.stream.StreamManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+
+import se.liu.semweb.t4v.owl2shacl.Conversion;
+import se.liu.semweb.t4v.owl2shacl.OWL2SHACL;
+import se.liu.semweb.t4v.owl2shacl.utils.OntologyIndex;
+
+/**
+ * Bounded cache of finished {@code /api/owl2shacl} results. Entries are keyed
+ * by ontology URL, conversion mode, whether the ontology is included and
+ * response format, and hold the
+ * serialized response body (and a gzip-compressed copy of larger bodies)
+ * together with an ETag and the class hierarchy the shapes were generated
+ * with (for {@link ShapesCache}), so that a cache hit costs a lookup and a write. On a
+ * miss the result is generated into memory, cached and then written to the
+ * client; a result that outgrows {@code t4v.shaclCache.maxBytes} is streamed
+ * to the client from then on instead. Concurrent requests for the same key
+ * wait for that conversion (including those of {@link Jobs}) and are then
+ * served its result, so an ontology is converted once however many clients
+ * ask for it at the same time. No lock is held while a client is written to,
+ * so a slow client does not hold up the others.
+ *
+ * Entries older than {@code t4v.shaclCache.ttl} seconds are revalidated with
+ * the origin servers of the ontology and its imports: through the
+ * {@link OntologyMirror} if it is installed, or otherwise with conditional
+ * HEAD requests against the ETag and Last-Modified values seen when the entry
+ * was created. Documents without either (e.g., {@code file:} URLs) are read
+ * again and compared by a SHA-256 hash of their content. The ontology is only
+ * converted again if a document has changed. The cache is bounded by {@code t4v.shaclCache.maxEntries} and
+ * {@code t4v.shaclCache.maxBytes}; least recently used entries are evicted
+ * first.
+ *
+ * With {@code t4v.shaclCache.conversions} above 0, the last {@link Conversion}
+ * of that many ontologies (by URL and mode) is kept as well, so that an
+ * ontology that has changed, or is asked for in another format, is converted
+ * incrementally.
+ *
+ * Hits and misses are counted by {@link Timing#cache(String, boolean)}, and
+ * the number of entries, bytes and kept conversions are exported as the
+ * gauges {@code t4v.cache.entries} and {@code t4v.cache.bytes}.
+ */
+public class ShaclCache {
+    static private Logger logger = LoggerFactory.getLogger(ShaclCache.class);
+
+    static private final int maxEntries = Integer.getInteger("t4v.shaclCache.maxEntries", 256);
+    static private final long maxBytes = Long.getLong("t4v.shaclCache.maxBytes", 256L * 1024 * 1024);
+    static private final long ttl = Long.getLong("t4v.shaclCache.ttl", 60L) * 1000;
+    static private final int maxConversions = Integer.getInteger("t4v.shaclCache.conversions", 0);
+
+    // Smaller bodies are not worth compressing
+    static private final int gzipThreshold = 1024;
+
+    static private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    static private long bytes = 0;
+
+    static private final LinkedHashMap<String, Conversion> conversions = new LinkedHashMap<>(16, 0.75f, true);
+
+    // One lock per key, so that an entry is revalidated once at a time. Locks
+    // are removed when no thread holds or waits for them.
+    static private final ConcurrentHashMap<String, KeyLock> locks = new ConcurrentHashMap<>();
+
+    // Conversions in progress by key, so that concurrent misses convert an
+    // ontology once. They complete with the stored entry, or with null if
+    // there is none to share (the result is too large, or the conversion
+    // failed), in which case a waiter converts the ontology itself.
+    static private final ConcurrentHashMap<String, CompletableFuture<Entry>> pending = new ConcurrentHashMap<>();
+
+    static private HttpClient client;
+
+    static {
+        Metrics.gauge("t4v.cache.entries", Tags.of("cache", "shacl"), entries, Map::size);
+        Metrics.gauge("t4v.cache.bytes", Tags.of("cache", "shacl"), entries, e -> bytes);
+        Metrics.gauge("t4v.cache.entries", Tags.of("cache", "conversions"), conversions, Map::size);
+    }
+
+    /**
+     * A serialized result.
+     */
+    static public class Entry {
+        private final byte[] body;
+        private final byte[] gzip;
+        private final String etag;
+        private final String contentType;
+        private final List<Source> sources;
+        private final byte[] hierarchy;
+        private volatile long checked;
+
+        Entry(byte[] body, String contentType, List<Source> sources, byte[] hierarchy) {
+            this.body = body;
+            this.hierarchy = hierarchy;
+            this.gzip = body.length < gzipThreshold ? null : gzip(body);
+            this.etag = "\"" + sha256(body).substring(0, 32) + "\"";
+            this.contentType = contentType;
+            this.sources = sources;
+            this.checked = System.currentTimeMillis();
+        }
+
+        /**
+         * Return the response body.
+         *
+         * @return
+         */
+        public byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * Return the gzip-compressed response body, or null if the body is too
+         * small to be worth compressing.
+         *
+         * @return
+         */
+        public byte[] getGzip() {
+            return gzip;
+        }
+
+        /**
+         * Return the (strong, quoted) ETag of the uncompressed body. The
+         * compressed body has the same ETag with a {@code -gzip} suffix.
+         *
+         * @return
+         */
+        public String getETag() {
+            return etag;
+        }
+
+        /**
+         * Return the ETag of the compressed body.
+         *
+         * @return
+         */
+        public String getGzipETag() {
+            return etag.substring(0, etag.length() - 1) + "-gzip\"";
+        }
+
+        /**
+         * Return the content type of the body.
+         *
+         * @return
+         */
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * Return the rdfs:subClassOf statements between the named classes of
+         * the ontology (with its imports) that the shapes were generated
+         * from, as N-Triples, or null if the result was too large to cache.
+         *
+         * @return
+         */
+        public byte[] getHierarchy() {
+            return hierarchy;
+        }
+
+        /**
+         * Return true if an If-None-Match header matches either representation
+         * of the body.
+         *
+         * @param ifNoneMatch
+         * @return
+         */
+        public boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(etag) || tag.equals(getGzipETag())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        long size() {
+            return body.length + (gzip == null ? 0 : gzip.length) + (hierarchy == null ? 0 : hierarchy.length);
+        }
+    }
+
+    /**
+     * A document the result was generated from, with the validators the
+     * origin server gave for it, or the hash of its content if there were
+     * none.
+     */
+    static private class Source {
+        final String url;
+        final String etag;
+        final String lastModified;
+        final String hash;
+
+        Source(String url, String etag, String lastModified, String hash) {
+            this.url = url;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * The lock of a key, and the number of threads that hold or wait for it.
+     */
+    static private class KeyLock {
+        final ReentrantLock lock = new ReentrantLock();
+        int users;
+    }
+
+    /**
+     * Keeps the bytes written to it, until there are more than a limit: then
+     * it runs a callback, writes the bytes kept to another stream and passes
+     * all further bytes on to it. Closing it only flushes the other stream,
+     * which belongs to the caller.
+     */
+    static private class BufferingOutputStream extends FilterOutputStream {
+        private final long limit;
+        private final Runnable overflow;
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        BufferingOutputStream(OutputStream out, long limit, Runnable overflow) {
+            super(out);
+            this.limit = limit;
+            this.overflow = overflow;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (buffer != null && buffer.size() + len > limit) {
+                overflow.run();
+                buffer.writeTo(out);
+                buffer = null;
+            }
+            if (buffer != null) {
+                buffer.write(b, off, len);
+            } else {
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        /**
+         * Return the bytes written, or null if there were more than the limit.
+         */
+        byte[] getBuffer() {
+            return buffer == null ? null : buffer.toByteArray();
+        }
+    }
+
+    /**
+     * Return the cached SHACL shapes of the ontology at a URL, or null if they
+     * are not cached or the ontology has changed since they were cached.
+     *
+     * @param url
+     * @param mode        the conversion mode (see
+     *                    {@link OWL2SHACL#owl2shacl(Model, String)}), or null
+     * @param shapesOnly  if true, the result does not include the ontology
+     * @param contentType the content type of the response
+     * @return
+     */
+    static public Entry getIfPresent(String url, String mode, boolean shapesOnly, String contentType) {
+        String key = key(url, mode, shapesOnly, contentType);
+        KeyLock lock = lock(key);
+        try {
+            Entry entry;
+            synchronized (entries) {
+                entry = entries.get(key);
+            }
+            if (entry == null) {
+                Timing.cache("shacl", false);
+                return null;
+            }
+            if (ttl < 0 || System.currentTimeMillis() - entry.checked <= ttl) {
+                Timing.cache("shacl", true);
+                return entry;
+            }
+            if (!isModified(entry)) {
+                entry.checked = System.currentTimeMillis();
+                Timing.cache("shacl", true);
+                return entry;
+            }
+            // Imported ontologies are cached by the document manager
+            for (Source source : entry.sources) {
+                OntDocumentManager.getInstance().forget(source.url);
+            }
+            synchronized (entries) {
+                if (entries.remove(key, entry)) {
+                    bytes -= entry.size();
+                }
+            }
+            logger.info("Ontology changed: " + url);
+            Timing.cache("shacl", false);
+            return null;
+        } finally {
+            unlock(key, lock);
+        }
+    }
+
+    /**
+     * Convert the ontology at a URL, cache its SHACL shapes and write them to
+     * a stream. Shapes larger than the cache are not cached, and are written
+     * as they are generated once they outgrow it. If the ontology is being or
+     * has been converted by another request in the meantime, that result is
+     * written instead.
+     *
+     * @param url
+     * @param mode        the conversion mode (see
+     *                    {@link OWL2SHACL#owl2shacl(Model, String)}), or null
+     * @param shapesOnly  if true, the ontology is not included
+     * @param lang        the RDF syntax that the shapes are written in
+     * @param contentType the content type of the response
+     * @param render      wraps the stream that the shapes are written to, and
+     *                    completes the response body when closed
+     * @param out
+     * @throws IOException
+     * @throws IllegalArgumentException if the ontology cannot be loaded, in
+     *                                  which case nothing has been written
+     */
+    static public void write(String url, String mode, boolean shapesOnly, Lang lang, String contentType,
+            Function<OutputStream, OutputStream> render, OutputStream out) throws IOException {
+        store(url, mode, shapesOnly, lang, contentType, render, out);
+    }
+
+    /**
+     * Return the SHACL shapes of the ontology at a URL, converting the
+     * ontology if they are not cached. Results too large to cache are
+     * returned all the same. Like
+     * {@link #write(String, String, boolean, Lang, String, Function, OutputStream)},
+     * concurrent calls for the same ontology and options convert it once.
+     *
+     * @param url
+     * @param mode        the conversion mode, or null
+     * @param shapesOnly  if true, the ontology is not included
+     * @param lang        the RDF syntax that the shapes are written in
+     * @param contentType the content type of the result
+     * @param render      wraps the stream that the shapes are written to
+     * @return
+     * @throws IOException
+     * @throws IllegalArgumentException if the ontology cannot be loaded
+     */
+    static public Entry get(String url, String mode, boolean shapesOnly, Lang lang, String contentType,
+            Function<OutputStream, OutputStream> render) throws IOException {
+        Entry entry = getIfPresent(url, mode, shapesOnly, contentType);
+        if (entry != null) {
+            return entry;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entry = store(url, mode, shapesOnly, lang, contentType, render, out);
+        return entry != null ? entry : new Entry(out.toByteArray(), contentType, List.of(), null);
+    }
+
+    /**
+     * Write the cached result for a key, or convert the ontology and cache the
+     * result, and return the entry, or null if it is too large to cache.
+     */
+    static private Entry store(String url, String mode, boolean shapesOnly, Lang lang, String contentType,
+            Function<OutputStream, OutputStream> render, OutputStream out) throws IOException {
+        String key = key(url, mode, shapesOnly, contentType);
+        while (true) {
+            Entry entry;
+            synchronized (entries) {
+                entry = entries.get(key);
+            }
+            if (entry == null) {
+                CompletableFuture<Entry> converted = new CompletableFuture<>();
+                CompletableFuture<Entry> other = pending.putIfAbsent(key, converted);
+                if (other == null) {
+                    return store(key, url, mode, shapesOnly, lang, contentType, render, converted, out);
+                }
+                entry = other.join();
+                if (entry == null) {
+                    continue;
+                }
+            }
+            out.write(entry.getBody());
+            return entry;
+        }
+    }
+
+    /**
+     * Convert the ontology and cache the result for a key, complete the
+     * pending conversion of the key, and then write the result.
+     */
+    static private Entry store(String key, String url, String mode, boolean shapesOnly, Lang lang,
+            String contentType, Function<OutputStream, OutputStream> render, CompletableFuture<Entry> converted,
+            OutputStream out) throws IOException {
+        Entry entry = null;
+        try {
+            synchronized (entries) {
+                // Stored by a conversion that finished in the meantime
+                entry = entries.get(key);
+            }
+            if (entry == null) {
+                // Waiters stop waiting as soon as the result is too large
+                entry = convert(url, mode, shapesOnly, lang, contentType, render, out, () -> converted.complete(null));
+                if (entry == null) {
+                    logger.info("Converted " + url + " (too large to cache)");
+                    return null;
+                }
+                logger.info("Converted " + url + " (" + entry.getBody().length + " bytes)");
+
+                synchronized (entries) {
+                    Entry previous = entries.put(key, entry);
+                    if (previous != null) {
+                        bytes -= previous.size();
+                    }
+                    bytes += entry.size();
+                    evict();
+                }
+            }
+        } finally {
+            converted.complete(entry);
+            pending.remove(key, converted);
+        }
+        out.write(entry.getBody());
+        return entry;
+    }
+
+    /**
+     * Return the changes of the last conversion of the ontology at a URL from
+     * the conversion before it, or null if no conversion is kept.
+     *
+     * @param url
+     * @param mode the conversion mode, or null
+     * @return
+     */
+    static public Conversion.Changes getChanges(String url, String mode) {
+        synchronized (conversions) {
+            Conversion conversion = conversions.get(conversionKey(url, mode));
+            return conversion != null ? conversion.getChanges() : null;
+        }
+    }
+
+    /**
+     * Remove all cached results and kept conversions.
+     */
+    static public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+        synchronized (conversions) {
+            conversions.clear();
+        }
+    }
+
+    static private Entry convert(String url, String mode, boolean shapesOnly, Lang lang, String contentType,
+            Function<OutputStream, OutputStream> render, OutputStream out, Runnable overflow) throws IOException {
+        // Validators are taken before reading, so that a change in between is
+        // seen by the next revalidation
+        boolean mirrored = OntologyMirror.get() != null;
+        Source source = mirrored && isHttp(url) ? new Source(url, null, null, null) : validators(url);
+
+        Model base = OWL2SHACL.load(url);
+        BufferingOutputStream buffer = new BufferingOutputStream(out, maxBytes, overflow);
+        OutputStream rendered = render.apply(buffer);
+        OntologyIndex index;
+        if (maxConversions > 0) {
+            index = convertIncrementally(url, mode, base, shapesOnly, lang, rendered);
+        } else {
+            index = OWL2SHACL.owl2shacl(base, mode, shapesOnly, lang, rendered);
+        }
+        // Not closed on failure, which would complete (and commit) the body
+        rendered.close();
+        byte[] body = buffer.getBuffer();
+        if (body == null) {
+            return null;
+        }
+
+        List<Source> sources = new ArrayList<>();
+        sources.add(source);
+        ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM, base).listImportedOntologyURIs(true)
+                .forEach(uri -> sources
+                        .add(mirrored && isHttp(uri) ? new Source(uri, null, null, null) : validators(uri)));
+        return new Entry(body, contentType, sources, ntriples(index.getClassHierarchy()));
+    }
+
+    static private OntologyIndex convertIncrementally(String url, String mode, Model base, boolean shapesOnly, Lang lang,
+            OutputStream out) {
+        String key = conversionKey(url, mode);
+        Conversion previous;
+        synchronized (conversions) {
+            previous = conversions.get(key);
+        }
+        Conversion conversion = OWL2SHACL.owl2shacl(base, mode, shapesOnly, lang, previous, out);
+        Conversion.Changes changes = conversion.getChanges();
+        logger.info("Converted " + url + " incrementally: " + changes.getGenerated() + " node shapes generated, "
+                + changes.getReused() + " reused");
+        synchronized (conversions) {
+            conversions.put(key, conversion);
+            Iterator<String> it = conversions.keySet().iterator();
+            while (conversions.size() > maxConversions && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        return conversion.getIndex();
+    }
+
+    static private KeyLock lock(String key) {
+        KeyLock lock = locks.compute(key, (k, l) -> {
+            l = l != null ? l : new KeyLock();
+            l.users++;
+            return l;
+        });
+        lock.lock.lock();
+        return lock;
+    }
+
+    static private void unlock(String key, KeyLock lock) {
+        lock.lock.unlock();
+        locks.compute(key, (k, l) -> --l.users == 0 ? null : l);
+    }
+
+    static private String conversionKey(String url, String mode) {
+        return (mode == null ? "reasoner" : mode) + " " + url;
+    }
+
+    /**
+     * Return the cache key of a result. Requests with the same key are served
+     * the same result.
+     *
+     * @param url
+     * @param mode
+     * @param shapesOnly
+     * @param contentType
+     * @return
+     */
+    static String key(String url, String mode, boolean shapesOnly, String contentType) {
+        return contentType + " " + (mode == null ? "reasoner" : mode) + (shapesOnly ? " shapes " : " all ") + url;
+    }
+
+    static private void evict() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && entries.size() > 1 && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            bytes -= eldest.getValue().size();
+            it.remove();
+            logger.info("Evicted SHACL result " + eldest.getKey());
+        }
+    }
+
+    /**
+     * Return true if any document of an entry has changed. Documents that
+     * cannot be revalidated (that fail to be, or had neither validators nor a
+     * hash) are assumed to be unchanged.
+     */
+    static private boolean isModified(Entry entry) {
+        OntologyMirror mirror = OntologyMirror.get();
+        for (Source source : entry.sources) {
+            try {
+                if (source.hash != null) {
+                    if (!source.hash.equals(hash(source.url))) {
+                        return true;
+                    }
+                } else if (mirror != null && isHttp(source.url) ? mirror.revalidate(source.url)
+                        : isModified(source)) {
+                    return true;
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to revalidate " + source.url + ": " + e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    static private boolean isModified(Source source) throws IOException {
+        if (source.etag == null && source.lastModified == null) {
+            return false;
+        }
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(source.url))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .timeout(Duration.ofSeconds(30));
+        if (source.etag != null) {
+            request.header("If-None-Match", source.etag);
+        }
+        if (source.lastModified != null) {
+            request.header("If-Modified-Since", source.lastModified);
+        }
+        HttpResponse<Void> response = send(request.build());
+        if (response.statusCode() == 304) {
+            return false;
+        }
+        if (response.statusCode() != 200) {
+            throw new IOException("HTTP " + response.statusCode());
+        }
+        return !Objects.equals(source.etag, response.headers().firstValue("ETag").orElse(null))
+                || !Objects.equals(source.lastModified, response.headers().firstValue("Last-Modified").orElse(null));
+    }
+
+    /**
+     * Return a document with its validators, or the hash of its content if
+     * its server gives none.
+     */
+    static private Source validators(String url) {
+        Source source = head(url);
+        if (source.etag != null || source.lastModified != null) {
+            return source;
+        }
+        try {
+            return new Source(url, null, null, hash(url));
+        } catch (IOException e) {
+            logger.warn("Failed to hash " + url + ": " + e.getMessage());
+            return source;
+        }
+    }
+
+    static private String hash(String url) throws IOException {
+        try (TypedInputStream in = StreamManager.get().open(url)) {
+            if (in == null) {
+                throw new IOException("Not found");
+            }
+            return sha256(in.readAllBytes());
+        } catch (RuntimeException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    static private Source head(String url) {
+        if (isHttp(url)) {
+            try {
+                HttpResponse<Void> response = send(HttpRequest.newBuilder(URI.create(url))
+                        .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                        .timeout(Duration.ofSeconds(30))
+                        .build());
+                if (response.statusCode() == 200) {
+                    return new Source(url, response.headers().firstValue("ETag").orElse(null),
+                            response.headers().firstValue("Last-Modified").orElse(null), null);
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                logger.warn("Failed to get validators for " + url + ": " + e.getMessage());
+            }
+        }
+        return new Source(url, null, null, null);
+    }
+
+    static private HttpResponse<Void> send(HttpRequest request) throws IOException {
+        try {
+            return getClient().send(request, HttpResponse.BodyHandlers.discarding());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+    }
+
+    static private synchronized HttpClient getClient() {
+        if (client == null) {
+            client = HttpClient.newBuilder()
+                    .followRedirects(HttpClient.Redirect.NORMAL)
+                    .connectTimeout(Duration.ofSeconds(30))
+                    .build();
+        }
+        return client;
+    }
+
+    static private boolean isHttp(String url) {
+        return url.startsWith("http://") || url.startsWith("https://");
+    }
+
+    static private byte[] ntriples(Graph graph) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RDFDataMgr.write(out, graph, Lang.NTRIPLES);
+        return out.toByteArray();
+    }
+
+    static private byte[] gzip(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(body);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    static private String sha256(byte[] body) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(body);
+            StringBuilder sb = new StringBuilder();
+            for (byte b : hash) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
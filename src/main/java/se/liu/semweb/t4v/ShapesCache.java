@@ -0,0 +1,223 @@
+package se.liu.semweb.t4v;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.compose.Union;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.shacl.Shapes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+
+/**
+ * Bounded cache of compiled SHACL shapes for {@code /api/validate}, so that
+ * validations against the same shapes neither convert an ontology nor parse
+ * the shapes again.
+ *
+ * Shapes generated from an ontology are keyed by the ontology URL and
+ * conversion mode, and taken from the {@link ShaclCache}, which revalidates
+ * the ontology with its servers; they are compiled again whenever the
+ * converted result changes. They are kept with the class hierarchy that the
+ * conversion reasoned out (see {@link ShaclCache.Entry#getHierarchy()}), which
+ * data is validated together with, so that sh:class constraints accept
+ * instances of sub-classes. Shapes documents given as a
+ * URI are keyed by the URI, and read and compiled again after
+ * {@code t4v.shapesCache.ttl} seconds; inline documents are keyed by a
+ * SHA-256 hash of their text. Concurrent requests for shapes that are not
+ * compiled yet wait for one of them to compile them. At most
+ * {@code t4v.shapesCache.maxEntries} compiled shapes are kept; least recently
+ * used entries are evicted first.
+ */
+public class ShapesCache {
+    static private Logger logger = LoggerFactory.getLogger(ShapesCache.class);
+
+    static private final int maxEntries = Integer.getInteger("t4v.shapesCache.maxEntries", 64);
+    static private final long ttl = Long.getLong("t4v.shapesCache.ttl", 60L) * 1000;
+
+    static private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Shapes being compiled by key, so that concurrent misses compile them
+    // once. They complete with the compiled shapes, or with null if compiling
+    // failed, in which case a waiter compiles them itself.
+    static private final ConcurrentHashMap<String, CompletableFuture<Entry>> pending = new ConcurrentHashMap<>();
+
+    static {
+        Metrics.gauge("t4v.cache.entries", Tags.of("cache", "shapes"), entries, Map::size);
+    }
+
+    /**
+     * Compiled shapes, the version of their source they were compiled from,
+     * and the class hierarchy of the ontology they were generated from, if
+     * any.
+     */
+    static public class Entry {
+        private final String version;
+        private final Shapes shapes;
+        private final Graph hierarchy;
+        private final long expires;
+
+        Entry(String version, Shapes shapes, Graph hierarchy, long expires) {
+            this.version = version;
+            this.shapes = shapes;
+            this.hierarchy = hierarchy;
+            this.expires = expires;
+        }
+
+        /**
+         * Return the compiled shapes.
+         *
+         * @return
+         */
+        public Shapes getShapes() {
+            return shapes;
+        }
+
+        /**
+         * Return the graph to validate data against the shapes in: the data
+         * and the class hierarchy of the ontology of the shapes, or the data
+         * alone for a shapes document. Only the data is changed by additions
+         * and deletions.
+         *
+         * @param data
+         * @return
+         */
+        public Graph withHierarchy(Graph data) {
+            return hierarchy == null ? data : new Union(data, hierarchy);
+        }
+
+        private boolean isCurrent(String version) {
+            return this.version.equals(version) && System.currentTimeMillis() < expires;
+        }
+    }
+
+    /**
+     * Return the compiled SHACL shapes of the ontology at a URL.
+     *
+     * @param url
+     * @param mode the conversion mode (see {@code /api/owl2shacl}), or null
+     * @return
+     * @throws IOException
+     * @throws IllegalArgumentException if the ontology cannot be loaded, or
+     *                                  its shapes are too large to cache
+     */
+    static public Entry forOntology(String url, String mode) throws IOException {
+        ShaclCache.Entry result = ShaclCache.get(url, mode, true, Lang.TURTLE, Server.turtleType, out -> out);
+        if (result.getHierarchy() == null) {
+            throw new IllegalArgumentException("The shapes of the ontology are too large to validate against: " + url);
+        }
+        String key = "ontology:" + (mode == null ? "reasoner" : mode) + " " + url;
+        // The hierarchy is the one the shapes were generated with
+        return get(key, result.getETag(), -1, () -> parse(result.getBody(), Lang.TURTLE),
+                () -> parse(result.getHierarchy(), Lang.NTRIPLES));
+    }
+
+    /**
+     * Return the compiled SHACL shapes of a shapes document (or the document
+     * at a URI) in the given syntax, or in the syntax detected from the
+     * document if none is given.
+     *
+     * @param shapes
+     * @param syntax
+     * @return
+     * @throws IllegalArgumentException if the document cannot be parsed
+     */
+    static public Entry forDocument(String shapes, String syntax) {
+        // Inline documents are keyed by their content and never change
+        return get(SchemaCache.key(shapes), "", InferenceEngine.isURI(shapes) ? ttl : -1,
+                () -> InferenceEngine.read(shapes, syntax).getGraph(), () -> null);
+    }
+
+    /**
+     * Return the compiled shapes for a key, loading and compiling the shapes
+     * graph if they are not cached, were compiled from another version of
+     * their source or have expired.
+     *
+     * @param ttl milliseconds after which the shapes are loaded again, or a
+     *            negative value to keep them until their version changes
+     */
+    static private Entry get(String key, String version, long ttl, Supplier<Graph> loader,
+            Supplier<Graph> hierarchy) {
+        Entry entry = getIfCurrent(key, version);
+        Timing.cache("shapes", entry != null);
+        while (entry == null) {
+            CompletableFuture<Entry> compiled = new CompletableFuture<>();
+            CompletableFuture<Entry> other = pending.putIfAbsent(key, compiled);
+            if (other == null) {
+                return compile(key, version, ttl, loader, hierarchy, compiled);
+            }
+            entry = other.join();
+        }
+        return entry;
+    }
+
+    static private Entry getIfCurrent(String key, String version) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            return entry != null && entry.isCurrent(version) ? entry : null;
+        }
+    }
+
+    /**
+     * Load and compile the shapes for a key, cache them, and complete the
+     * pending compilation of the key.
+     */
+    static private Entry compile(String key, String version, long ttl, Supplier<Graph> loader,
+            Supplier<Graph> hierarchy, CompletableFuture<Entry> compiled) {
+        Entry entry = null;
+        try {
+            // Compiled by a request that finished in the meantime
+            entry = getIfCurrent(key, version);
+            if (entry != null) {
+                return entry;
+            }
+
+            long expires = ttl < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + ttl;
+            Graph graph = loader.get();
+            Shapes shapes;
+            try {
+                shapes = Timing.time("compile", () -> Shapes.parse(graph));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Failed to compile the shapes: " + e.getMessage(), e);
+            }
+            entry = new Entry(version, shapes, hierarchy.get(), expires);
+            logger.info("Compiled shapes " + key + " (" + shapes.numRootShapes() + " shapes)");
+
+            synchronized (entries) {
+                entries.put(key, entry);
+                Iterator<String> it = entries.keySet().iterator();
+                while (entries.size() > maxEntries && it.hasNext()) {
+                    logger.info("Evicted shapes " + it.next());
+                    it.remove();
+                }
+            }
+            return entry;
+        } finally {
+            compiled.complete(entry);
+            pending.remove(key, compiled);
+        }
+    }
+
+    static private Graph parse(byte[] body, Lang lang) {
+        return Timing.time("parse", () -> RDFParser.source(new ByteArrayInputStream(body)).lang(lang).toGraph());
+    }
+
+    /**
+     * Remove all compiled shapes.
+     */
+    static public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package se.liu.semweb.t4v;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Time spent in each phase of a request (fetching, parsing, reasoning,
+ * generating, compressing and writing). Every phase is recorded as the
+ * Micrometer timer {@code t4v.phase}, tagged with the phase, and added to the
+ * breakdown of the current thread, if any, which {@link TimingFilter} sends to
+ * the client in a {@code Server-Timing} header. Phases that run in parallel
+ * (e.g., the generation of node shapes) are summed over the threads.
+ *
+ * The breakdown of the calling thread applies to work handed to
+ * {@link Workers}, like the {@link Budget}.
+ */
+public class Timing {
+    static private final ThreadLocal<Timing> current = new ThreadLocal<>();
+
+    static private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    // Nanoseconds of each phase, in the order they started
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private final Map<String, String> notes = new LinkedHashMap<>();
+
+    /**
+     * Create an empty breakdown.
+     *
+     * @return
+     */
+    static public Timing create() {
+        return new Timing();
+    }
+
+    /**
+     * Return the breakdown of the current thread, or null.
+     *
+     * @return
+     */
+    static public Timing current() {
+        return current.get();
+    }
+
+    /**
+     * Make this breakdown the breakdown of the current thread until the
+     * returned scope is closed.
+     *
+     * @return
+     */
+    public Scope enter() {
+        Scope scope = new Scope(current.get());
+        current.set(this);
+        return scope;
+    }
+
+    /**
+     * Restores the previous breakdown of a thread when closed.
+     */
+    static public class Scope implements AutoCloseable {
+        private final Timing previous;
+
+        private Scope(Timing previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (previous == null) {
+                current.remove();
+            } else {
+                current.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Run a task with a breakdown as the breakdown of the current thread.
+     *
+     * @param <T>
+     * @param timing the breakdown, or null to run the task as is
+     * @param task
+     * @return
+     * @throws Exception if the task throws one
+     */
+    static public <T> T run(Timing timing, Callable<T> task) throws Exception {
+        if (timing == null) {
+            return task.call();
+        }
+        Scope scope = timing.enter();
+        try {
+            return task.call();
+        } finally {
+            scope.close();
+        }
+    }
+
+    /**
+     * Run a task as a phase and record the time it took.
+     *
+     * @param <T>
+     * @param phase
+     * @param task
+     * @return
+     */
+    static public <T> T time(String phase, Callable<T> task) {
+        long start = System.nanoTime();
+        try {
+            return task.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        } finally {
+            record(phase, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Record the time taken by a phase.
+     *
+     * @param phase
+     * @param nanos
+     */
+    static public void record(String phase, long nanos) {
+        timers.computeIfAbsent(phase, p -> Timer.builder("t4v.phase")
+                .description("Time spent in a phase of the conversion and inference pipelines")
+                .tag("phase", p)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+        Timing timing = current.get();
+        if (timing != null) {
+            synchronized (timing) {
+                timing.phases.merge(phase, nanos, Long::sum);
+            }
+        }
+    }
+
+    /**
+     * Count a lookup in a cache, and note whether it was a hit in the
+     * breakdown of the current thread.
+     *
+     * @param cache
+     * @param hit
+     */
+    static public void cache(String cache, boolean hit) {
+        Counter.builder("t4v.cache.requests")
+                .description("Lookups in the schema, SHACL and shapes caches")
+                .tag("cache", cache)
+                .tag("result", hit ? "hit" : "miss")
+                .register(Metrics.globalRegistry)
+                .increment();
+        Timing timing = current.get();
+        if (timing != null) {
+            synchronized (timing) {
+                timing.notes.put(cache + "-cache", hit ? "hit" : "miss");
+            }
+        }
+    }
+
+    /**
+     * Count a document parsed in an RDF syntax.
+     *
+     * @param syntax
+     */
+    static public void parsed(String syntax) {
+        Counter.builder("t4v.parse")
+                .description("Documents parsed, by RDF syntax")
+                .tag("syntax", syntax)
+                .register(Metrics.globalRegistry)
+                .increment();
+    }
+
+    /**
+     * Record the number of triples read or written: of the data, a schema or
+     * an ontology that was read, or the shapes that were written.
+     *
+     * @param kind
+     * @param triples
+     */
+    static public void triples(String kind, long triples) {
+        DistributionSummary.builder("t4v.triples")
+                .description("Triples read from inputs and written to outputs")
+                .baseUnit("triples")
+                .tag("kind", kind)
+                .register(Metrics.globalRegistry)
+                .record(triples);
+    }
+
+    /**
+     * Return the breakdown as the value of a {@code Server-Timing} header,
+     * with durations in milliseconds.
+     *
+     * @return
+     */
+    public synchronized String toHeader() {
+        StringBuilder sb = new StringBuilder();
+        phases.forEach((phase, nanos) -> {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(phase).append(";dur=").append(String.format(Locale.ROOT, "%.1f", nanos / 1e6));
+        });
+        notes.forEach((name, note) -> {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(name).append(";desc=").append(note);
+        });
+        return sb.toString();
+    }
+}
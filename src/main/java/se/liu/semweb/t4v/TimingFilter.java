@@ -0,0 +1,200 @@
+package se.liu.semweb.t4v;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Gives every request its own {@link Timing} breakdown and sends it to the
+ * client in a {@code Server-Timing} header. The header is added at the last
+ * moment before the response is committed, so it covers all phases that are
+ * done by then. Streamed responses (e.g., of {@code /api/owl2shacl}) commit
+ * before the work is done; if the client accepts trailers ({@code TE:
+ * trailers}), the complete breakdown is sent in a {@code Server-Timing}
+ * trailer as well.
+ */
+@Component
+public class TimingFilter extends OncePerRequestFilter {
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Timing timing = Timing.create();
+        String te = request.getHeader("TE");
+        boolean trailers = te != null && te.toLowerCase().contains("trailers");
+        TimingResponse wrapper = new TimingResponse(response, timing, trailers);
+        Timing.Scope scope = timing.enter();
+        try {
+            chain.doFilter(request, wrapper);
+        } finally {
+            scope.close();
+        }
+        // Responses without a body, e.g. 304 Not Modified
+        if (!request.isAsyncStarted()) {
+            wrapper.addTiming();
+        }
+    }
+
+    /**
+     * Adds the Server-Timing header before the response is committed.
+     */
+    static private class TimingResponse extends HttpServletResponseWrapper {
+        private final Timing timing;
+        private final boolean trailers;
+        private boolean added;
+        private long contentLength = -1;
+        private ServletOutputStream out;
+
+        TimingResponse(HttpServletResponse response, Timing timing, boolean trailers) {
+            super(response);
+            this.timing = timing;
+            this.trailers = trailers;
+        }
+
+        synchronized void addTiming() {
+            HttpServletResponse response = (HttpServletResponse) getResponse();
+            if (added || response.isCommitted()) {
+                return;
+            }
+            added = true;
+            response.setHeader("Server-Timing", timing.toHeader());
+            if (trailers) {
+                response.setHeader("Trailer", "Server-Timing");
+                response.setTrailerFields(() -> Map.of("Server-Timing", timing.toHeader()));
+            }
+        }
+
+        @Override
+        public synchronized ServletOutputStream getOutputStream() throws IOException {
+            if (out == null) {
+                out = new TimingOutputStream(super.getOutputStream(), this);
+            }
+            return out;
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            setContentLengthLong(len);
+        }
+
+        @Override
+        public void setContentLengthLong(long len) {
+            contentLength = len;
+            super.setContentLengthLong(len);
+        }
+
+        /**
+         * Return the number of bytes after which the response is committed.
+         */
+        long getCommitSize() {
+            return contentLength < 0 ? getBufferSize() : Math.min(contentLength, getBufferSize());
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            // Rarely used, the breakdown so far will do
+            addTiming();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            addTiming();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            addTiming();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            addTiming();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            addTiming();
+            super.sendRedirect(location);
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            synchronized (this) {
+                added = false;
+            }
+        }
+    }
+
+    /**
+     * Adds the Server-Timing header when the bytes written would no longer
+     * fit in the response buffer or complete the content length, or the
+     * stream is flushed or closed.
+     */
+    static private class TimingOutputStream extends ServletOutputStream {
+        private final ServletOutputStream out;
+        private final TimingResponse response;
+        private long written;
+
+        TimingOutputStream(ServletOutputStream out, TimingResponse response) {
+            this.out = out;
+            this.response = response;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            beforeWrite(1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            beforeWrite(len);
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            response.addTiming();
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            response.addTiming();
+            out.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return out.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+            out.setWriteListener(listener);
+        }
+
+        private void beforeWrite(int len) {
+            written += len;
+            if (written >= response.getCommitSize()) {
+                response.addTiming();
+            }
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package se.liu.semweb.t4v;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.InfModel;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.reasoner.Reasoner;
+import org.apache.jena.vocabulary.OWL2;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+
+/**
+ * Precomputed type closure for schemas that only use rdfs:subClassOf,
+ * rdfs:subPropertyOf, rdfs:domain and rdfs:range (plus declarations and
+ * annotations). For such schemas the types of a resource only depend on its
+ * asserted types and the properties it is used with, so they can be answered
+ * by a lookup instead of running the reasoner over the data.
+ *
+ * The closure is computed once per schema by running the schema's reasoner
+ * over a synthetic graph with one probe individual per class and one probe
+ * pair per property. This way the answers are exactly those of the reasoner,
+ * including additional types such as owl:Thing and rdfs:Resource.
+ */
+public class TypeClosure {
+    static private final String probeBase = "urn:t4v:probe:";
+
+    static private final Set<Node> supportedPredicates = Set.of(
+            RDF.type.asNode(),
+            RDFS.subClassOf.asNode(),
+            RDFS.subPropertyOf.asNode(),
+            RDFS.domain.asNode(),
+            RDFS.range.asNode(),
+            RDFS.label.asNode(),
+            RDFS.comment.asNode(),
+            RDFS.seeAlso.asNode(),
+            RDFS.isDefinedBy.asNode(),
+            OWL2.imports.asNode(),
+            OWL2.versionInfo.asNode(),
+            OWL2.versionIRI.asNode(),
+            OWL2.priorVersion.asNode(),
+            OWL2.backwardCompatibleWith.asNode(),
+            OWL2.incompatibleWith.asNode(),
+            OWL2.deprecated.asNode());
+
+    static private final Set<Node> supportedTypes = Set.of(
+            OWL2.Class.asNode(),
+            RDFS.Class.asNode(),
+            RDF.Property.asNode(),
+            OWL2.ObjectProperty.asNode(),
+            OWL2.DatatypeProperty.asNode(),
+            OWL2.AnnotationProperty.asNode(),
+            OWL2.Ontology.asNode(),
+            RDFS.Datatype.asNode());
+
+    // Class IDs
+    private final Map<Node, Integer> ids = new HashMap<>();
+    private final List<Node> classes = new ArrayList<>();
+
+    // Inferred types of an individual of a given class (indexed by class ID)
+    private final List<BitSet> types = new ArrayList<>();
+
+    // Inferred types of the subject/object of a given property
+    private final Map<Node, BitSet> domainTypes = new HashMap<>();
+    private final Map<Node, BitSet> rangeTypes = new HashMap<>();
+
+    // Resources described by the schema
+    private final Set<Node> schemaResources = new HashSet<>();
+
+    private TypeClosure() {
+    }
+
+    /**
+     * Compile the type closure of a schema, or return null if the schema uses
+     * constructs that are not supported.
+     *
+     * @param schema
+     * @param reasoner a reasoner bound to the schema
+     * @return
+     */
+    static public TypeClosure compile(Model schema, Reasoner reasoner) {
+        Graph graph = schema.getGraph();
+        Set<Node> classNodes = new LinkedHashSet<>();
+        Set<Node> propertyNodes = new LinkedHashSet<>();
+        TypeClosure closure = new TypeClosure();
+
+        for (Triple t : graph.find().toList()) {
+            Node s = t.getSubject();
+            Node p = t.getPredicate();
+            Node o = t.getObject();
+            if (isVocabulary(p) && !supportedPredicates.contains(p)) {
+                return null;
+            }
+            if (p.equals(RDF.type.asNode())) {
+                if (isVocabulary(o) && !supportedTypes.contains(o)) {
+                    return null;
+                }
+                if (o.equals(OWL2.Class.asNode()) || o.equals(RDFS.Class.asNode())) {
+                    classNodes.add(s);
+                } else if (o.equals(RDF.Property.asNode()) || o.equals(OWL2.ObjectProperty.asNode())
+                        || o.equals(OWL2.DatatypeProperty.asNode())) {
+                    propertyNodes.add(s);
+                }
+            } else if (p.equals(RDFS.subClassOf.asNode())) {
+                if (!s.isURI() || !o.isURI()) {
+                    return null;
+                }
+                classNodes.add(s);
+                classNodes.add(o);
+            } else if (p.equals(RDFS.subPropertyOf.asNode())) {
+                if (!s.isURI() || !o.isURI()) {
+                    return null;
+                }
+                propertyNodes.add(s);
+                propertyNodes.add(o);
+            } else if (p.equals(RDFS.domain.asNode()) || p.equals(RDFS.range.asNode())) {
+                if (!s.isURI() || !o.isURI()) {
+                    return null;
+                }
+                propertyNodes.add(s);
+                classNodes.add(o);
+            }
+            closure.schemaResources.add(s);
+            closure.schemaResources.add(o);
+        }
+
+        // Probe the reasoner with one individual per class and one pair per property
+        Model probe = ModelFactory.createDefaultModel();
+        List<Node> classList = new ArrayList<>(classNodes);
+        List<Node> propertyList = new ArrayList<>(propertyNodes);
+        for (int i = 0; i < classList.size(); i++) {
+            probe.getGraph().add(Triple.create(probeNode("c", i), RDF.type.asNode(), classList.get(i)));
+        }
+        for (int i = 0; i < propertyList.size(); i++) {
+            probe.getGraph().add(Triple.create(probeNode("s", i), propertyList.get(i), probeNode("o", i)));
+        }
+        InfModel inf = ModelFactory.createInfModel(reasoner, probe);
+        Graph infGraph = inf.getGraph();
+
+        for (int i = 0; i < classList.size(); i++) {
+            int id = closure.id(classList.get(i));
+            BitSet bits = closure.typesOf(infGraph, probeNode("c", i));
+            while (closure.types.size() <= id) {
+                closure.types.add(null);
+            }
+            closure.types.set(id, bits);
+        }
+        for (int i = 0; i < propertyList.size(); i++) {
+            closure.domainTypes.put(propertyList.get(i), closure.typesOf(infGraph, probeNode("s", i)));
+            closure.rangeTypes.put(propertyList.get(i), closure.typesOf(infGraph, probeNode("o", i)));
+        }
+        return closure;
+    }
+
+    /**
+     * Return the inferred types of a target in a data graph, or null if the data
+     * requires the full reasoner (e.g., if it contains schema statements).
+     *
+     * @param data
+     * @param target
+     * @return
+     */
+    public List<String> getTypes(Graph data, Node target) {
+        if (!isPlainData(data)) {
+            return null;
+        }
+        return lookup(data, target);
+    }
+
+    /**
+     * Return the inferred types of a target in a data graph that is known to
+     * only contain instance data (see {@link #isPlainData(Graph)}), or null if
+     * the target is described by the schema.
+     *
+     * @param data
+     * @param target
+     * @return
+     */
+    public List<String> lookup(Graph data, Node target) {
+        if (schemaResources.contains(target)) {
+            return null;
+        }
+        BitSet result = new BitSet();
+        Set<Node> other = new LinkedHashSet<>();
+        data.find(target, Node.ANY, Node.ANY).forEachRemaining(t -> {
+            if (t.getPredicate().equals(RDF.type.asNode())) {
+                Integer id = ids.get(t.getObject());
+                if (id != null && id < types.size() && types.get(id) != null) {
+                    result.or(types.get(id));
+                } else {
+                    other.add(t.getObject());
+                }
+            } else {
+                BitSet domain = domainTypes.get(t.getPredicate());
+                if (domain != null) {
+                    result.or(domain);
+                }
+            }
+        });
+        data.find(Node.ANY, Node.ANY, target).forEachRemaining(t -> {
+            BitSet range = rangeTypes.get(t.getPredicate());
+            if (range != null) {
+                result.or(range);
+            }
+        });
+
+        List<String> list = new ArrayList<>();
+        result.stream().forEach(id -> list.add(classes.get(id).getURI()));
+        other.forEach(node -> {
+            if (node.isURI()) {
+                list.add(node.getURI());
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Return true if the data graph only contains instance data, i.e., no
+     * statements using the RDF, RDFS or OWL vocabularies other than labels,
+     * comments and rdf:type with a user defined class.
+     *
+     * @param data
+     * @return
+     */
+    static public boolean isPlainData(Graph data) {
+        return !data.find().filterDrop(TypeClosure::isPlain).hasNext();
+    }
+
+    /**
+     * Return true if a statement is instance data, see
+     * {@link #isPlainData(Graph)}.
+     *
+     * @param t
+     * @return
+     */
+    static public boolean isPlain(Triple t) {
+        Node p = t.getPredicate();
+        if (p.equals(RDF.type.asNode())) {
+            return !isVocabulary(t.getObject());
+        }
+        return !isVocabulary(p) || p.equals(RDFS.label.asNode()) || p.equals(RDFS.comment.asNode());
+    }
+
+    private BitSet typesOf(Graph inf, Node node) {
+        BitSet bits = new BitSet();
+        inf.find(node, RDF.type.asNode(), Node.ANY).forEachRemaining(t -> {
+            if (t.getObject().isURI()) {
+                bits.set(id(t.getObject()));
+            }
+        });
+        return bits;
+    }
+
+    private int id(Node node) {
+        Integer id = ids.get(node);
+        if (id == null) {
+            id = classes.size();
+            ids.put(node, id);
+            classes.add(node);
+        }
+        return id;
+    }
+
+    static private Node probeNode(String kind, int i) {
+        return NodeFactory.createURI(probeBase + kind + i);
+    }
+
+    static private boolean isVocabulary(Node node) {
+        if (!node.isURI()) {
+            return false;
+        }
+        String uri = node.getURI();
+        return uri.startsWith(RDF.uri) || uri.startsWith(RDFS.uri) || uri.startsWith(OWL2.NS);
+    }
+}
@@ -0,0 +1,58 @@
+package se.liu.semweb.t4v;
+
+public class Validation {
+    private String data;
+    private String syntax;
+    private String ontology;
+    private String mode;
+    private String shapes;
+    private String shapesSyntax;
+
+    public String getData() {
+        return data;
+    }
+
+    public void setData(String data) {
+        this.data = data;
+    }
+
+    public String getSyntax() {
+        return syntax;
+    }
+
+    public void setSyntax(String syntax) {
+        this.syntax = syntax;
+    }
+
+    public String getOntology() {
+        return ontology;
+    }
+
+    public void setOntology(String ontology) {
+        this.ontology = ontology;
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    public String getShapes() {
+        return shapes;
+    }
+
+    public void setShapes(String shapes) {
+        this.shapes = shapes;
+    }
+
+    public String getShapesSyntax() {
+        return shapesSyntax;
+    }
+
+    public void setShapesSyntax(String shapesSyntax) {
+        this.shapesSyntax = shapesSyntax;
+    }
+}
@@ -0,0 +1,219 @@
+package se.liu.semweb.t4v;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded pool of platform threads for CPU-heavy reasoning.
+ *
+ * When requests are served on virtual threads (Java 21+ with
+ * {@code spring.threads.virtual.enabled=true}), any number of requests can
+ * block on remote fetches without tying up platform threads, but reasoning
+ * would then run with unbounded parallelism. {@link #reason(Callable)} hands
+ * such work to a fixed pool of {@code t4v.reasoning.threads} threads (by
+ * default one per processor) and parks the virtual thread until it is done.
+ * On platform threads the work runs directly on the calling thread, whose
+ * pool already bounds the parallelism. The {@link Budget} and the
+ * {@link Timing} breakdown of the calling thread apply to the work in both
+ * cases.
+ *
+ * Work that splits into independent parts can be spread over a fork-join pool
+ * of the same size with {@link #map(List, Function)} and
+ * {@link #forEach(List, Function, Consumer)}.
+ */
+public class Workers {
+    static private Logger logger = LoggerFactory.getLogger(Workers.class);
+
+    static private final int threads = Integer.getInteger("t4v.reasoning.threads",
+            Runtime.getRuntime().availableProcessors());
+
+    // Thread.isVirtual() is only available on Java 21+
+    static private final Method isVirtual = lookupIsVirtual();
+
+    static private ExecutorService pool;
+    static private ForkJoinPool forkJoinPool;
+
+    /**
+     * Run CPU-heavy work, on the reasoning pool if the calling thread is
+     * virtual.
+     *
+     * @param <T>
+     * @param task
+     * @return
+     */
+    static public <T> T reason(Callable<T> task) {
+        if (!isVirtualThread()) {
+            return call(task);
+        }
+        Budget budget = Budget.current();
+        return get(getPool().submit(inherit(budget, task)), budget);
+    }
+
+    /**
+     * Apply a function to each item of a list, in parallel on the fork-join
+     * pool, and return the results in the order of the items. The function
+     * must only read shared state.
+     *
+     * @param <T>
+     * @param <R>
+     * @param items
+     * @param function
+     * @return
+     */
+    static public <T, R> List<R> map(List<T> items, Function<T, R> function) {
+        List<R> results = new ArrayList<>(items.size());
+        forEach(items, function, results::add);
+        return results;
+    }
+
+    /**
+     * Apply a function to each item of a list, in parallel on the fork-join
+     * pool, and pass the results to a consumer on the calling thread in the
+     * order of the items, each as soon as it is done. At most a few results
+     * per thread are computed ahead of the consumer. The function must only
+     * read shared state. On a platform thread, with a single thread or item
+     * the function is applied on the calling thread.
+     *
+     * @param <T>
+     * @param <R>
+     * @param items
+     * @param function
+     * @param consumer
+     */
+    static public <T, R> void forEach(List<T> items, Function<T, R> function, Consumer<R> consumer) {
+        if ((threads <= 1 || items.size() <= 1) && !isVirtualThread()) {
+            items.forEach(item -> consumer.accept(function.apply(item)));
+            return;
+        }
+        Budget budget = Budget.current();
+        ForkJoinPool pool = getForkJoinPool();
+        int window = 2 * threads;
+        Deque<Future<R>> futures = new ArrayDeque<>();
+        Iterator<T> it = items.iterator();
+        try {
+            while (it.hasNext() || !futures.isEmpty()) {
+                while (it.hasNext() && futures.size() < window) {
+                    T item = it.next();
+                    futures.add(pool.submit(inherit(budget, () -> function.apply(item))));
+                }
+                consumer.accept(get(futures.peek(), budget));
+                futures.remove();
+            }
+        } finally {
+            // Left over if the function or the consumer failed
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    /**
+     * Return a task that runs another with a budget and the timing breakdown
+     * of the calling thread.
+     */
+    static private <T> Callable<T> inherit(Budget budget, Callable<T> task) {
+        Timing timing = Timing.current();
+        return () -> Timing.run(timing, budget != null ? () -> budget.run(task) : task);
+    }
+
+    static private <T> T get(Future<T> future, Budget budget) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            if (budget != null) {
+                budget.cancel("interrupted");
+            }
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Return true if the calling thread is a virtual thread.
+     *
+     * @return
+     */
+    static public boolean isVirtualThread() {
+        if (isVirtual == null) {
+            return false;
+        }
+        try {
+            return (Boolean) isVirtual.invoke(Thread.currentThread());
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    static private synchronized ExecutorService getPool() {
+        if (pool == null) {
+            AtomicInteger count = new AtomicInteger();
+            pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                    r -> {
+                        Thread thread = new Thread(r, "reasoner-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            logger.info("Started reasoning pool with " + threads + " threads");
+        }
+        return pool;
+    }
+
+    static private synchronized ForkJoinPool getForkJoinPool() {
+        if (forkJoinPool == null) {
+            AtomicInteger count = new AtomicInteger();
+            forkJoinPool = new ForkJoinPool(threads, pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("worker-" + count.incrementAndGet());
+                return thread;
+            }, null, false);
+            logger.info("Started fork-join pool with " + threads + " threads");
+        }
+        return forkJoinPool;
+    }
+
+    static private <T> T call(Callable<T> task) {
+        try {
+            return task.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static private Method lookupIsVirtual() {
+        try {
+            return Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
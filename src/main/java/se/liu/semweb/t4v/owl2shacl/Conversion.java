@@ -0,0 +1,564 @@
+package se.liu.semweb.t4v.owl2shacl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.graph.impl.WrappedGraph;
+import org.apache.jena.ontology.OntModel;
+import org.apache.jena.ontology.OntModelSpec;
+import org.apache.jena.ontology.Restriction;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.util.iterator.ExtendedIterator;
+
+import se.liu.semweb.t4v.Timing;
+import se.liu.semweb.t4v.Workers;
+import se.liu.semweb.t4v.owl2shacl.utils.OntologyIndex;
+import se.liu.semweb.t4v.owl2shacl.utils.Shape;
+import se.liu.semweb.t4v.owl2shacl.utils.ShapeUtils;
+
+/**
+ * The SHACL shapes generated from a version of an ontology, kept so that the
+ * next version can be converted incrementally.
+ *
+ * Along with each node shape, a conversion records a fingerprint of the
+ * classes, restrictions and domain statements it was generated from, and the
+ * statement patterns that generating it looked up in the (inferred) ontology. To convert a new
+ * version, its blank nodes are first matched with those of the old version,
+ * so that unchanged axioms give the same statements. If no statement has
+ * changed, the old shapes are reused as they are. Otherwise the new version is
+ * reasoned over, and only the node shapes whose inputs changed, or whose
+ * patterns match a statement that was inferred before but not now (or the
+ * other way around), are generated again. Since the generation only reads the
+ * inferred statements, a reused node shape is what generating it again would
+ * give.
+ *
+ * The imports of the ontology are read once per conversion and merged with
+ * the ontology, so that changes to them are found in the same way.
+ */
+public class Conversion {
+    private final String mode;
+    private final boolean compress;
+    // The ontology document and, with its imports, the statements that it was
+    // converted from, with the blank nodes of the earlier version
+    private final Model base;
+    private final Graph asserted;
+    // The statements that the shapes were generated from, and their index
+    private final Graph snapshot;
+    private final OntologyIndex index;
+    private final Map<String, NodeShape> nodeShapes;
+    // The node shapes that looked up each pattern, by one of its nodes
+    private final Map<Node, Map<Triple, List<NodeShape>>> dependencies = new HashMap<>();
+    private final Changes changes;
+
+    private Conversion(String mode, boolean compress, Model base, Graph asserted, Graph snapshot,
+            OntologyIndex index, List<NodeShape> nodeShapes, Changes changes) {
+        this.mode = mode;
+        this.compress = compress;
+        this.base = base;
+        this.asserted = asserted;
+        this.snapshot = snapshot;
+        this.index = index;
+        this.nodeShapes = new LinkedHashMap<>();
+        this.changes = changes;
+        // Many node shapes look up the same patterns, which are shared
+        Map<Triple, Triple> shared = new HashMap<>();
+        nodeShapes.forEach(nodeShape -> {
+            this.nodeShapes.put(nodeShape.uri, nodeShape);
+            Triple[] patterns = nodeShape.patterns;
+            for (int i = 0; i < patterns.length; i++) {
+                patterns[i] = shared.computeIfAbsent(patterns[i], pattern -> pattern);
+                dependencies.computeIfAbsent(anchor(patterns[i]), k -> new HashMap<>())
+                        .computeIfAbsent(patterns[i], k -> new ArrayList<>()).add(nodeShape);
+            }
+        });
+    }
+
+    /**
+     * The node shapes of a conversion that differ from the previous conversion.
+     */
+    public static class Changes {
+        private final List<String> added = new ArrayList<>();
+        private final List<String> removed = new ArrayList<>();
+        private final List<String> changed = new ArrayList<>();
+        private int generated = 0;
+        private int reused = 0;
+
+        /**
+         * @return the URIs of the node shapes that the previous conversion did
+         *         not have
+         */
+        public List<String> getAdded() {
+            return added;
+        }
+
+        /**
+         * @return the URIs of the node shapes of the previous conversion that
+         *         are gone
+         */
+        public List<String> getRemoved() {
+            return removed;
+        }
+
+        /**
+         * @return the URIs of the node shapes that were generated again and
+         *         differ from those of the previous conversion
+         */
+        public List<String> getChanged() {
+            return changed;
+        }
+
+        /**
+         * @return the number of node shapes that were generated
+         */
+        public int getGenerated() {
+            return generated;
+        }
+
+        /**
+         * @return the number of node shapes that were taken from the previous
+         *         conversion
+         */
+        public int getReused() {
+            return reused;
+        }
+    }
+
+    /**
+     * A node shape and what it was generated from. For large ontologies the
+     * kept conversions add up, so the patterns are held as an array and the
+     * inputs only as a fingerprint.
+     */
+    private static class NodeShape {
+        final String uri;
+        final long inputs;
+        final Triple[] patterns;
+        final Shape shape;
+        final boolean reused;
+
+        NodeShape(String uri, long inputs, Triple[] patterns, Shape shape, boolean reused) {
+            this.uri = uri;
+            this.inputs = inputs;
+            this.patterns = patterns;
+            this.shape = shape;
+            this.reused = reused;
+        }
+    }
+
+    /**
+     * Convert an ontology, reusing the node shapes of an earlier conversion of
+     * it that are unaffected by the changes in between, and pass each node
+     * shape to a consumer as
+     * {@link OWL2SHACL#generate(OntModel, boolean, Consumer)} does, along with
+     * the index of the ontology (e.g., for the labels of the properties).
+     *
+     * @param base     the ontology document
+     * @param mode     the conversion mode (see
+     *                 {@link OWL2SHACL#owl2shacl(Model, String)}), or null
+     * @param compress
+     * @param previous the conversion of an earlier version, or null
+     * @param consumer
+     * @return
+     */
+    public static Conversion convert(Model base, String mode, boolean compress, Conversion previous,
+            BiConsumer<Shape, OntologyIndex> consumer) {
+        Conversion earlier = previous != null && "hierarchy".equals(previous.mode) == "hierarchy".equals(mode)
+                && previous.compress == compress ? previous : null;
+
+        Model[] models = Timing.time("align", () -> Workers.reason(() -> {
+            Model asserted = ModelFactory.createDefaultModel()
+                    .add(ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM, base));
+            if (earlier == null) {
+                return new Model[] { base, asserted };
+            }
+            Map<Node, Node> mapping = align(asserted.getGraph(), earlier.asserted);
+            return new Model[] { relabel(base, mapping), relabel(asserted, mapping) };
+        }));
+        Model alignedBase = models[0];
+        Graph asserted = models[1].getGraph();
+
+        if (earlier != null && isSame(asserted, earlier.asserted)) {
+            Changes changes = new Changes();
+            earlier.nodeShapes.values().forEach(nodeShape -> {
+                consumer.accept(nodeShape.shape, earlier.index);
+                changes.reused++;
+            });
+            return new Conversion(mode, compress, alignedBase, earlier.asserted, earlier.snapshot, earlier.index,
+                    new ArrayList<>(earlier.nodeShapes.values()), changes);
+        }
+
+        OntModel model = Workers.reason(() -> OWL2SHACL.createModel(models[1], mode, false));
+        Map<Resource, List<Restriction>> restrictionsMap = Timing.time("reason",
+                () -> Workers.reason(() -> OWL2SHACL.getRestrictionsMap(model)));
+        OntologyIndex index = Timing.time("reason",
+                () -> Workers.reason(() -> OntologyIndex.build(model.getGraph(), alignedBase.getGraph())));
+        Map<Resource, List<Statement>> domainStatements = OWL2SHACL.getDomainStatements(index, restrictionsMap);
+        OntModel snapshot = Timing.time("reason", () -> Workers.reason(() -> OWL2SHACL.snapshot(model)));
+        Set<NodeShape> affected = earlier != null
+                ? Timing.time("align", () -> Workers.reason(() -> earlier.affected(snapshot.getGraph())))
+                : Set.of();
+
+        Map<String, List<Resource>> groups = OWL2SHACL.getNodeShapes(restrictionsMap);
+        List<NodeShape> nodeShapes = new ArrayList<>();
+        Workers.forEach(new ArrayList<>(groups.entrySet()), entry -> {
+            String uri = entry.getKey();
+            List<Resource> keys = entry.getValue();
+            long inputs = getInputs(keys, restrictionsMap, domainStatements);
+            NodeShape old = earlier != null ? earlier.nodeShapes.get(uri) : null;
+            if (old != null && !affected.contains(old) && old.inputs == inputs) {
+                return new NodeShape(uri, inputs, old.patterns, old.shape, true);
+            }
+
+            RecordingGraph graph = new RecordingGraph(snapshot.getGraph());
+            OntModel view = ModelFactory.createOntologyModel(OWL2SHACL.snapshotSpec,
+                    ModelFactory.createModelForGraph(graph));
+            // Lookups in the index are recorded as the patterns they answer
+            OntologyIndex recording = index.recording(graph.patterns::add);
+            Shape shape = Timing.time("generate",
+                    () -> OWL2SHACL.generate(view, uri, keys, restrictionsMap, domainStatements, recording));
+            Shape compressed = compress ? Timing.time("compress", () -> ShapeUtils.compressShape(shape, recording))
+                    : shape;
+            return new NodeShape(uri, inputs, graph.patterns.toArray(new Triple[0]), compressed, false);
+        }, nodeShape -> {
+            nodeShapes.add(nodeShape);
+            consumer.accept(nodeShape.shape, index);
+        });
+
+        Changes changes = new Changes();
+        nodeShapes.forEach(nodeShape -> {
+            NodeShape old = earlier != null ? earlier.nodeShapes.get(nodeShape.uri) : null;
+            if (nodeShape.reused) {
+                changes.reused++;
+                return;
+            }
+            changes.generated++;
+            if (old == null) {
+                changes.added.add(nodeShape.uri);
+            } else if (!isSame(nodeShape.shape, old.shape)) {
+                changes.changed.add(nodeShape.uri);
+            }
+        });
+        if (earlier != null) {
+            Set<String> uris = new HashSet<>(groups.keySet());
+            earlier.nodeShapes.keySet().stream().filter(uri -> !uris.contains(uri)).forEach(changes.removed::add);
+        }
+        return new Conversion(mode, compress, alignedBase, asserted, snapshot.getGraph(), index, nodeShapes,
+                changes);
+    }
+
+    /**
+     * Return the ontology document of the conversion, with the blank nodes of
+     * the earlier version.
+     *
+     * @return
+     */
+    public Model getBase() {
+        return base;
+    }
+
+    /**
+     * Return the index of the ontology that the shapes were generated from.
+     *
+     * @return
+     */
+    public OntologyIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Return the node shapes that differ from the previous conversion.
+     *
+     * @return
+     */
+    public Changes getChanges() {
+        return changes;
+    }
+
+    /**
+     * Return the node shapes whose patterns match a statement that is in the
+     * snapshot of this conversion or in a new snapshot, but not in both.
+     */
+    private Set<NodeShape> affected(Graph graph) {
+        Set<NodeShape> affected = new HashSet<>();
+        Consumer<Triple> changed = t -> {
+            for (Node node : new Node[] { t.getSubject(), t.getPredicate(), t.getObject(), Node.ANY }) {
+                dependencies.getOrDefault(node, Map.of()).forEach((pattern, readers) -> {
+                    if (pattern.matches(t)) {
+                        affected.addAll(readers);
+                    }
+                });
+            }
+        };
+        graph.find().forEachRemaining(t -> {
+            if (!snapshot.contains(t)) {
+                changed.accept(t);
+            }
+        });
+        snapshot.find().forEachRemaining(t -> {
+            if (!graph.contains(t)) {
+                changed.accept(t);
+            }
+        });
+        return affected;
+    }
+
+    /**
+     * Return a fingerprint of what a node shape is generated from besides the
+     * statements it looks up: its classes and their restrictions and domain
+     * statements. The order of the restrictions and statements (which is that
+     * of the inferred graph) does not matter.
+     */
+    private static long getInputs(List<Resource> keys, Map<Resource, List<Restriction>> restrictionsMap,
+            Map<Resource, List<Statement>> domainStatements) {
+        long inputs = 0;
+        for (Resource key : keys) {
+            long hash = fingerprint(key.asNode().toString());
+            inputs += mix(hash);
+            for (Restriction restriction : restrictionsMap.get(key)) {
+                inputs += mix(31 * hash + fingerprint(restriction.asNode().toString()));
+            }
+            for (Statement stmt : domainStatements.getOrDefault(key, List.of())) {
+                inputs += mix(37 * hash + fingerprint(stmt.asTriple().toString()));
+            }
+        }
+        return inputs;
+    }
+
+    /**
+     * Return a 64-bit hash of a string.
+     */
+    private static long fingerprint(String string) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < string.length(); i++) {
+            hash = (hash ^ string.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Return the node that a pattern is indexed by: its subject, object or
+     * predicate, whichever is concrete first, or {@link Node#ANY}.
+     */
+    private static Node anchor(Triple pattern) {
+        if (pattern.getSubject().isConcrete()) {
+            return pattern.getSubject();
+        }
+        if (pattern.getObject().isConcrete()) {
+            return pattern.getObject();
+        }
+        if (pattern.getPredicate().isConcrete()) {
+            return pattern.getPredicate();
+        }
+        return Node.ANY;
+    }
+
+    /**
+     * Return a mapping from the blank nodes of a graph to those of an earlier
+     * version of it that have the same statements and are referred to in the
+     * same way. Blank nodes referred to by a named resource (or by nothing)
+     * are matched first, and the blank nodes they refer to along the way.
+     * Blank nodes without a match are left out.
+     *
+     * @param graph
+     * @param previous
+     * @return
+     */
+    static Map<Node, Node> align(Graph graph, Graph previous) {
+        Map<Node, Long> hashes = new HashMap<>();
+        Map<Node, Long> previousHashes = new HashMap<>();
+
+        Map<List<Object>, Deque<Node>> candidates = new HashMap<>();
+        forEachRoot(previous, previousHashes, (key, node) -> {
+            candidates.computeIfAbsent(key, k -> new ArrayDeque<>()).add(node);
+        });
+
+        Map<Node, Node> mapping = new HashMap<>();
+        Set<Node> matched = new HashSet<>();
+        Deque<Node> queue = new ArrayDeque<>();
+        forEachRoot(graph, hashes, (key, node) -> {
+            Deque<Node> nodes = candidates.get(key);
+            while (!mapping.containsKey(node) && nodes != null && !nodes.isEmpty()) {
+                Node match = nodes.poll();
+                if (matched.add(match)) {
+                    mapping.put(node, match);
+                    queue.add(node);
+                }
+            }
+        });
+
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            Node match = mapping.get(node);
+            for (Triple t : graph.find(node, Node.ANY, Node.ANY).toList()) {
+                Node object = t.getObject();
+                if (!object.isBlank() || mapping.containsKey(object)) {
+                    continue;
+                }
+                long hash = hash(graph, object, hashes);
+                for (Triple u : previous.find(match, t.getPredicate(), Node.ANY).toList()) {
+                    Node candidate = u.getObject();
+                    if (candidate.isBlank() && !matched.contains(candidate)
+                            && hash(previous, candidate, previousHashes) == hash) {
+                        matched.add(candidate);
+                        mapping.put(object, candidate);
+                        queue.add(object);
+                        break;
+                    }
+                }
+            }
+        }
+        return mapping;
+    }
+
+    private interface RootConsumer {
+        void accept(List<Object> key, Node node);
+    }
+
+    /**
+     * Pass each blank node that is referred to by named resources, keyed by
+     * the referring statements and its structure, and each blank node that is
+     * not referred to at all, keyed by its structure, to a consumer.
+     */
+    private static void forEachRoot(Graph graph, Map<Node, Long> hashes, RootConsumer consumer) {
+        // A blank node can be shared, e.g. as the range of several properties
+        Map<Node, Set<List<Node>>> referrers = new LinkedHashMap<>();
+        Set<Node> subjects = new HashSet<>();
+        graph.find().forEachRemaining(t -> {
+            Node subject = t.getSubject();
+            Node object = t.getObject();
+            if (object.isBlank() && !subject.isBlank()) {
+                referrers.computeIfAbsent(object, k -> new HashSet<>()).add(List.of(subject, t.getPredicate()));
+            }
+            if (subject.isBlank()) {
+                subjects.add(subject);
+            }
+        });
+        referrers.forEach((node, keys) -> consumer.accept(List.of(keys, hash(graph, node, hashes)), node));
+        subjects.forEach(subject -> {
+            if (!graph.contains(Node.ANY, Node.ANY, subject)) {
+                consumer.accept(List.of(hash(graph, subject, hashes)), subject);
+            }
+        });
+    }
+
+    /**
+     * Return a hash of the statements about a blank node and, recursively, the
+     * blank nodes it refers to, that does not depend on the order of the
+     * statements or the labels of the blank nodes.
+     */
+    private static long hash(Graph graph, Node node, Map<Node, Long> hashes) {
+        Long known = hashes.get(node);
+        if (known != null) {
+            return known;
+        }
+        // Cycles of blank nodes end here
+        hashes.put(node, 0L);
+        long hash = 0;
+        for (Triple t : graph.find(node, Node.ANY, Node.ANY).toList()) {
+            Node object = t.getObject();
+            long value = object.isBlank() ? hash(graph, object, hashes) : object.hashCode();
+            hash += mix(31L * t.getPredicate().hashCode() + value);
+        }
+        hashes.put(node, hash);
+        return hash;
+    }
+
+    static private long mix(long x) {
+        x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+        x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return x ^ (x >>> 33);
+    }
+
+    /**
+     * Return a copy of a model with its blank nodes replaced by those they are
+     * mapped to.
+     */
+    private static Model relabel(Model model, Map<Node, Node> mapping) {
+        Model relabeled = ModelFactory.createDefaultModel();
+        relabeled.setNsPrefixes(model.getNsPrefixMap());
+        Graph graph = relabeled.getGraph();
+        model.getGraph().find().forEachRemaining(t -> {
+            graph.add(Triple.create(mapping.getOrDefault(t.getSubject(), t.getSubject()), t.getPredicate(),
+                    mapping.getOrDefault(t.getObject(), t.getObject())));
+        });
+        return relabeled;
+    }
+
+    /**
+     * Return true if two node shapes have the same target classes and property
+     * shapes, in any order.
+     */
+    static private boolean isSame(Shape shape, Shape previous) {
+        return shape.targetClasses().equals(previous.targetClasses())
+                && new HashSet<>(shape.properties()).equals(new HashSet<>(previous.properties()));
+    }
+
+    static private boolean isSame(Graph graph, Graph previous) {
+        return graph.size() == previous.size() && graph.find().filterDrop(previous::contains).toList().isEmpty();
+    }
+
+    /**
+     * Graph that records the patterns it is searched with.
+     */
+    private static class RecordingGraph extends WrappedGraph {
+        final Set<Triple> patterns = new HashSet<>();
+
+        RecordingGraph(Graph base) {
+            super(base);
+        }
+
+        @Override
+        public ExtendedIterator<Triple> find(Triple m) {
+            record(m.getSubject(), m.getPredicate(), m.getObject());
+            return super.find(m);
+        }
+
+        @Override
+        public ExtendedIterator<Triple> find(Node s, Node p, Node o) {
+            record(s, p, o);
+            return super.find(s, p, o);
+        }
+
+        @Override
+        public boolean contains(Node s, Node p, Node o) {
+            record(s, p, o);
+            return super.contains(s, p, o);
+        }
+
+        @Override
+        public boolean contains(Triple t) {
+            record(t.getSubject(), t.getPredicate(), t.getObject());
+            return super.contains(t);
+        }
+
+        @Override
+        public int size() {
+            record(Node.ANY, Node.ANY, Node.ANY);
+            return super.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            record(Node.ANY, Node.ANY, Node.ANY);
+            return super.isEmpty();
+        }
+
+        private void record(Node s, Node p, Node o) {
+            patterns.add(Triple.createMatch(s, p, o));
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package se.liu.semweb.t4v.owl2shacl;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.jena.rdf.model.Literal;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.vocabulary.OWL2;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.apache.jena.vocabulary.XSD;
+
+/**
+ * Reasoner-free replacement for the parts of the OWL micro reasoner that the
+ * SHACL generation depends on.
+ *
+ * The generation only needs restrictions, domains and ranges to be inherited
+ * along the class and property hierarchies. {@link #materialize(Model)} builds
+ * the explicit subclass and subproperty graphs of an ontology (including
+ * equivalences, intersections, unions, inverse properties and equivalent
+ * restrictions), computes their transitive closures with one memoized pass over
+ * the strongly connected components, and returns the resulting statements as a
+ * plain model. These are the statements the micro reasoner would infer for the
+ * class and property hierarchies, so {@link OWL2SHACL#generate} produces the
+ * same shapes from the ontology and the closure as from the inference model.
+ */
+public class HierarchyClosure {
+
+    // Datatypes declared by the axioms of the micro reasoner
+    private static final Set<Resource> datatypes = Set.of(XSD.xfloat, XSD.xdouble, XSD.xint, XSD.xlong,
+            XSD.xshort, XSD.xbyte, XSD.unsignedByte, XSD.unsignedShort, XSD.unsignedInt, XSD.unsignedLong,
+            XSD.decimal, XSD.integer, XSD.nonPositiveInteger, XSD.nonNegativeInteger, XSD.positiveInteger,
+            XSD.negativeInteger, XSD.xboolean, XSD.xstring, XSD.anyURI, XSD.hexBinary, XSD.date, XSD.time,
+            XSD.dateTime, XSD.duration, XSD.gDay, XSD.gMonth, XSD.gYear, XSD.gYearMonth, XSD.gMonthDay,
+            RDF.xmlLiteral);
+
+    // Restriction properties that make restrictions with the same value equivalent
+    private static final List<Property> restrictionProperties = List.of(OWL2.someValuesFrom, OWL2.allValuesFrom,
+            OWL2.minCardinality, OWL2.maxCardinality, OWL2.cardinality, OWL2.hasValue);
+
+    /**
+     * Return the class and property hierarchy statements entailed by an
+     * ontology model (including its imports).
+     *
+     * @param model
+     * @return
+     */
+    public static Model materialize(Model model) {
+        Model closure = ModelFactory.createDefaultModel();
+
+        // Domains and ranges, with those of inverse properties
+        Set<Resource> objectProperties = model.listSubjectsWithProperty(RDF.type, OWL2.ObjectProperty).toSet();
+        Map<Resource, Set<Resource>> domains = new LinkedHashMap<>();
+        Map<Resource, Set<Resource>> ranges = new LinkedHashMap<>();
+        model.listStatements(null, RDFS.domain, (RDFNode) null).filterKeep(stmt -> stmt.getObject().isResource())
+                .forEach(stmt -> add(domains, stmt.getSubject(), stmt.getResource()));
+        model.listStatements(null, RDFS.range, (RDFNode) null).filterKeep(stmt -> stmt.getObject().isResource())
+                .forEach(stmt -> add(ranges, stmt.getSubject(), stmt.getResource()));
+        objectProperties.forEach(p -> {
+            add(domains, p, OWL2.Thing);
+            add(ranges, p, OWL2.Thing);
+        });
+        List<Resource[]> inverses = new ArrayList<>();
+        model.listStatements(null, OWL2.inverseOf, (RDFNode) null).filterKeep(stmt -> stmt.getObject().isResource())
+                .forEach(stmt -> {
+                    inverses.add(new Resource[] { stmt.getSubject(), stmt.getResource() });
+                    inverses.add(new Resource[] { stmt.getResource(), stmt.getSubject() });
+                });
+        boolean changed = !inverses.isEmpty();
+        while (changed) {
+            changed = false;
+            for (Resource[] inverse : inverses) {
+                changed |= addAll(domains, inverse[1], ranges.get(inverse[0]));
+                changed |= addAll(ranges, inverse[1], domains.get(inverse[0]));
+            }
+        }
+
+        // Classes: those typed as rdfs:Class (which are subclasses of
+        // rdfs:Resource) and those typed as owl:Class (subclasses of owl:Thing)
+        Set<Resource> rdfsClasses = new LinkedHashSet<>();
+        rdfsClasses.add(RDFS.Resource);
+        rdfsClasses.add(RDFS.Literal);
+        rdfsClasses.addAll(model.listSubjectsWithProperty(RDF.type, RDFS.Class).toList());
+        domains.values().forEach(rdfsClasses::addAll);
+        ranges.values().forEach(rdfsClasses::addAll);
+        Set<Resource> owlClasses = new LinkedHashSet<>();
+        owlClasses.add(OWL2.Thing);
+        owlClasses.addAll(model.listSubjectsWithProperty(RDF.type, OWL2.Class).toList());
+
+        // Class hierarchy
+        Map<Resource, Set<Resource>> superClasses = new LinkedHashMap<>();
+        model.listStatements(null, RDFS.subClassOf, (RDFNode) null).filterKeep(stmt -> stmt.getObject().isResource())
+                .forEach(stmt -> add(superClasses, stmt.getSubject(), stmt.getResource()));
+        model.listStatements(null, OWL2.equivalentClass, (RDFNode) null)
+                .filterKeep(stmt -> stmt.getObject().isResource())
+                .forEach(stmt -> {
+                    add(superClasses, stmt.getSubject(), stmt.getResource());
+                    add(superClasses, stmt.getResource(), stmt.getSubject());
+                });
+        model.listStatements(null, OWL2.intersectionOf, (RDFNode) null).forEach(stmt -> {
+            members(model, stmt).forEach(member -> add(superClasses, stmt.getSubject(), member));
+        });
+        model.listStatements(null, OWL2.unionOf, (RDFNode) null).forEach(stmt -> {
+            members(model, stmt).forEach(member -> add(superClasses, member, stmt.getSubject()));
+        });
+        Set<Resource> terms = addRestrictions(model, superClasses, ranges);
+        owlClasses.forEach(c -> {
+            add(superClasses, c, OWL2.Thing);
+            add(superClasses, OWL2.Nothing, c);
+        });
+        rdfsClasses.forEach(c -> add(superClasses, c, RDFS.Resource));
+
+        Map<Resource, Set<Resource>> classAncestors = closure(superClasses);
+        classAncestors.forEach((c, ancestors) -> {
+            if (terms.contains(c)) {
+                return;
+            }
+            closure.add(c, RDF.type, RDFS.Class);
+            ancestors.forEach(a -> {
+                if (terms.contains(a)) {
+                    return;
+                }
+                closure.add(c, RDFS.subClassOf, a);
+                if (classAncestors.get(a).contains(c)) {
+                    closure.add(c, OWL2.equivalentClass, a);
+                }
+            });
+        });
+        model.listStatements(null, OWL2.onProperty, (RDFNode) null).forEach(stmt -> {
+            closure.add(stmt.getSubject(), RDF.type, OWL2.Restriction);
+            if (stmt.getObject().isResource()) {
+                closure.add(stmt.getResource(), RDF.type, RDF.Property);
+            }
+        });
+        classAncestors.keySet().stream().filter(datatypes::contains)
+                .forEach(d -> closure.add(d, RDF.type, RDFS.Datatype));
+
+        // Property types implied by subclasses of the property classes
+        Set<Resource> objectPropertyTypes = Set.of(OWL2.ObjectProperty, OWL2.TransitiveProperty,
+                OWL2.SymmetricProperty, OWL2.InverseFunctionalProperty);
+        model.listStatements(null, RDF.type, (RDFNode) null).forEach(stmt -> {
+            RDFNode type = stmt.getObject();
+            Set<Resource> typeAncestors = classAncestors.getOrDefault(type, Collections.emptySet());
+            if (objectPropertyTypes.contains(type)
+                    || typeAncestors.stream().anyMatch(objectPropertyTypes::contains)) {
+                closure.add(stmt.getSubject(), RDF.type, OWL2.ObjectProperty);
+            }
+            if (typeAncestors.contains(OWL2.DatatypeProperty)) {
+                closure.add(stmt.getSubject(), RDF.type, OWL2.DatatypeProperty);
+            }
+        });
+
+        // Property hierarchy, with inherited domains and ranges
+        Map<Resource, Set<Resource>> superProperties = new LinkedHashMap<>();
+        model.listStatements(null, RDFS.subPropertyOf, (RDFNode) null)
+                .filterKeep(stmt -> stmt.getObject().isResource())
+                .forEach(stmt -> add(superProperties, stmt.getSubject(), stmt.getResource()));
+        model.listStatements(null, OWL2.equivalentProperty, (RDFNode) null)
+                .filterKeep(stmt -> stmt.getObject().isResource())
+                .forEach(stmt -> {
+                    add(superProperties, stmt.getSubject(), stmt.getResource());
+                    add(superProperties, stmt.getResource(), stmt.getSubject());
+                });
+        domains.keySet().forEach(p -> superProperties.computeIfAbsent(p, k -> new LinkedHashSet<>()));
+        ranges.keySet().forEach(p -> superProperties.computeIfAbsent(p, k -> new LinkedHashSet<>()));
+
+        closure(superProperties).forEach((p, ancestors) -> {
+            ancestors.forEach(q -> {
+                domains.getOrDefault(q, Collections.emptySet()).forEach(d -> {
+                    classAncestors.get(d).stream().filter(c -> !terms.contains(c))
+                            .forEach(c -> closure.add(p, RDFS.domain, c));
+                });
+                ranges.getOrDefault(q, Collections.emptySet()).forEach(r -> {
+                    classAncestors.get(r).stream().filter(c -> !terms.contains(c))
+                            .forEach(c -> closure.add(p, RDFS.range, c));
+                });
+            });
+        });
+
+        return closure;
+    }
+
+    /**
+     * Add the subclass relations that the micro reasoner derives from
+     * restrictions. The reasoner relates each restriction to a hidden class
+     * term for what it restricts, e.g. {@code some(P, D)} for a
+     * someValuesFrom restriction on P. This makes restrictions that restrict a
+     * property in the same way equivalent, and the restriction rules relate
+     * the terms of different kinds of restrictions. The terms are added as
+     * blank nodes, and returned so that they can be left out of the closure.
+     *
+     * @param model
+     * @param superClasses
+     * @param ranges       the declared (not inherited) ranges of properties
+     * @return
+     */
+    private static Set<Resource> addRestrictions(Model model, Map<Resource, Set<Resource>> superClasses,
+            Map<Resource, Set<Resource>> ranges) {
+        Map<List<Object>, Resource> terms = new HashMap<>();
+        Set<Resource> functional = model.listSubjectsWithProperty(RDF.type, OWL2.FunctionalProperty).toSet();
+        model.listStatements(null, OWL2.inverseOf, (RDFNode) null).forEach(stmt -> {
+            if (stmt.getObject().isResource()) {
+                if (stmt.getSubject().hasProperty(RDF.type, OWL2.InverseFunctionalProperty)) {
+                    functional.add(stmt.getResource());
+                }
+                if (stmt.getResource().hasProperty(RDF.type, OWL2.InverseFunctionalProperty)) {
+                    functional.add(stmt.getSubject());
+                }
+            }
+        });
+        Object one = valueOf(model.createTypedLiteral(1));
+
+        model.listStatements(null, OWL2.onProperty, (RDFNode) null).forEach(stmt -> {
+            Resource r = stmt.getSubject();
+            RDFNode p = stmt.getObject();
+            Map<Property, Set<Object>> values = new HashMap<>();
+            for (Property kind : restrictionProperties) {
+                r.listProperties(kind).forEach(v -> {
+                    Object value = valueOf(v.getObject());
+                    values.computeIfAbsent(kind, k -> new LinkedHashSet<>()).add(value);
+                    equivalent(superClasses, r, term(terms, kind, p, value));
+                });
+            }
+            Set<Object> some = new LinkedHashSet<>(values.getOrDefault(OWL2.someValuesFrom, Set.of()));
+            Set<Object> min = new LinkedHashSet<>(values.getOrDefault(OWL2.minCardinality, Set.of()));
+            Set<Object> max = new LinkedHashSet<>(values.getOrDefault(OWL2.maxCardinality, Set.of()));
+            Set<Object> card = values.getOrDefault(OWL2.cardinality, Set.of());
+
+            card.forEach(x -> {
+                add(superClasses, r, term(terms, OWL2.minCardinality, p, x));
+                add(superClasses, r, term(terms, OWL2.maxCardinality, p, x));
+                if (x.equals(one) && functional.contains(p)) {
+                    equivalent(superClasses, r, term(terms, OWL2.minCardinality, p, x));
+                }
+            });
+            min.stream().filter(max::contains)
+                    .forEach(x -> equivalent(superClasses, r, term(terms, OWL2.cardinality, p, x)));
+            if (max.contains(one) && functional.contains(p)) {
+                add(superClasses, OWL2.Thing, r);
+            }
+
+            // The restriction is also a direct subclass of the min and max
+            // terms of its cardinality
+            min.addAll(card);
+            max.addAll(card);
+            min.stream().filter(max::contains)
+                    .forEach(x -> add(superClasses, r, term(terms, OWL2.cardinality, p, x)));
+            if (min.stream().anyMatch(n -> max.stream().anyMatch(x -> compare(x, n) < 0))) {
+                equivalent(superClasses, r, OWL2.Nothing);
+            }
+            if (min.contains(one) && p.isResource()) {
+                ranges.getOrDefault(p.asResource(), Set.of()).forEach(d -> {
+                    add(superClasses, r, term(terms, OWL2.someValuesFrom, p, d));
+                    some.add(d);
+                });
+            }
+            if (max.contains(one)) {
+                some.forEach(d -> add(superClasses, r, term(terms, OWL2.allValuesFrom, p, d)));
+            }
+            if (p.isResource()) {
+                Set<Resource> range = ranges.getOrDefault(p.asResource(), Set.of());
+                if (values.getOrDefault(OWL2.allValuesFrom, Set.of()).stream().anyMatch(range::contains)) {
+                    add(superClasses, OWL2.Thing, r);
+                }
+            }
+        });
+        return new HashSet<>(terms.values());
+    }
+
+    private static Resource term(Map<List<Object>, Resource> terms, Property kind, RDFNode property, Object value) {
+        return terms.computeIfAbsent(List.of(kind, property, value), k -> ResourceFactory.createResource());
+    }
+
+    private static void equivalent(Map<Resource, Set<Resource>> superClasses, Resource a, Resource b) {
+        add(superClasses, a, b);
+        add(superClasses, b, a);
+    }
+
+    /**
+     * Return a value to compare restriction values by. Literals are compared
+     * by value, numbers regardless of their datatype.
+     */
+    private static Object valueOf(RDFNode node) {
+        if (node.isLiteral()) {
+            Literal literal = node.asLiteral();
+            try {
+                Object value = literal.getValue();
+                if (value instanceof Number) {
+                    return new BigDecimal(value.toString()).stripTrailingZeros();
+                }
+                return value;
+            } catch (Exception e) {
+                return literal.getLexicalForm();
+            }
+        }
+        return node;
+    }
+
+    private static int compare(Object a, Object b) {
+        if (a instanceof BigDecimal && b instanceof BigDecimal) {
+            return ((BigDecimal) a).compareTo((BigDecimal) b);
+        }
+        return 0;
+    }
+
+    private static List<Resource> members(Model model, Statement stmt) {
+        List<Resource> members = new ArrayList<>();
+        if (stmt.getObject().isResource()) {
+            model.getList(stmt.getResource()).iterator().forEachRemaining(node -> {
+                if (node.isResource()) {
+                    members.add(node.asResource());
+                }
+            });
+        }
+        return members;
+    }
+
+    private static void add(Map<Resource, Set<Resource>> map, Resource key, Resource value) {
+        map.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(value);
+        map.computeIfAbsent(value, k -> new LinkedHashSet<>());
+    }
+
+    private static boolean addAll(Map<Resource, Set<Resource>> map, Resource key, Set<Resource> values) {
+        if (values == null) {
+            return false;
+        }
+        return map.computeIfAbsent(key, k -> new LinkedHashSet<>()).addAll(values);
+    }
+
+    /**
+     * Return the reflexive and transitive closure of a graph given by the
+     * successors of each node. The strongly connected components of the graph
+     * are found with Tarjan's algorithm (iteratively, so that deep hierarchies
+     * do not overflow the stack), which produces every component after the
+     * components it leads to, so the closure of each component is computed once
+     * from the closures of its successors. Nodes of a component share one set.
+     *
+     * @param successors every node must be a key
+     * @return
+     */
+    static Map<Resource, Set<Resource>> closure(Map<Resource, Set<Resource>> successors) {
+        Map<Resource, Set<Resource>> result = new HashMap<>();
+        Map<Resource, Integer> index = new HashMap<>();
+        Map<Resource, Integer> lowlink = new HashMap<>();
+        Deque<Resource> stack = new ArrayDeque<>();
+        Set<Resource> onStack = new HashSet<>();
+
+        for (Resource root : successors.keySet()) {
+            if (index.containsKey(root)) {
+                continue;
+            }
+            // Each frame is a node and an iterator over its successors
+            Deque<Object[]> frames = new ArrayDeque<>();
+            frames.push(new Object[] { root, successors.get(root).iterator() });
+            index.put(root, index.size());
+            lowlink.put(root, index.get(root));
+            stack.push(root);
+            onStack.add(root);
+
+            while (!frames.isEmpty()) {
+                Object[] frame = frames.peek();
+                Resource node = (Resource) frame[0];
+                @SuppressWarnings("unchecked")
+                Iterator<Resource> it = (Iterator<Resource>) frame[1];
+                if (it.hasNext()) {
+                    Resource next = it.next();
+                    if (!index.containsKey(next)) {
+                        index.put(next, index.size());
+                        lowlink.put(next, index.get(next));
+                        stack.push(next);
+                        onStack.add(next);
+                        frames.push(new Object[] { next, successors.get(next).iterator() });
+                    } else if (onStack.contains(next)) {
+                        lowlink.put(node, Math.min(lowlink.get(node), index.get(next)));
+                    }
+                    continue;
+                }
+
+                frames.pop();
+                if (!frames.isEmpty()) {
+                    Resource parent = (Resource) frames.peek()[0];
+                    lowlink.put(parent, Math.min(lowlink.get(parent), lowlink.get(node)));
+                }
+                if (lowlink.get(node).equals(index.get(node))) {
+                    // Pop the component; its successors outside it are done
+                    List<Resource> component = new ArrayList<>();
+                    Resource member;
+                    do {
+                        member = stack.pop();
+                        onStack.remove(member);
+                        component.add(member);
+                    } while (!member.equals(node));
+
+                    Set<Resource> ancestors = new LinkedHashSet<>(component);
+                    for (Resource c : component) {
+                        for (Resource s : successors.get(c)) {
+                            Set<Resource> done = result.get(s);
+                            if (done != null) {
+                                ancestors.addAll(done);
+                            }
+                        }
+                    }
+                    component.forEach(c -> result.put(c, ancestors));
+                }
+            }
+        }
+        return result;
+    }
+}
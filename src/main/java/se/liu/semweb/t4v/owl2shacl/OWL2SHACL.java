@@ -28,20 +28,33 @@ owl:someValuesFrom
 
 package se.liu.semweb.t4v.owl2shacl;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
+import org.apache.jena.atlas.io.IndentedWriter;
 import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.GraphUtil;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.ontology.OntDocumentManager;
 import org.apache.jena.ontology.OntModel;
 import org.apache.jena.ontology.OntModelSpec;
 import org.apache.jena.ontology.Restriction;
@@ -55,17 +68,38 @@ import org.apache.jena.rdf.model.Property;
 import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RIOT;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWrapper;
+import org.apache.jena.riot.system.StreamRDFWriter;
+import org.apache.jena.riot.writer.WriterStreamRDFBlocks;
+import org.apache.jena.sparql.graph.GraphReadOnly;
 import org.apache.jena.vocabulary.OWL2;
 import org.apache.jena.vocabulary.RDF;
 import org.apache.jena.vocabulary.RDFS;
 
+import se.liu.semweb.t4v.Budget;
+import se.liu.semweb.t4v.BudgetedReasoner;
+import se.liu.semweb.t4v.OntologyMirror;
+import se.liu.semweb.t4v.Timing;
+import se.liu.semweb.t4v.Workers;
+import se.liu.semweb.t4v.owl2shacl.utils.OntologyIndex;
+import se.liu.semweb.t4v.owl2shacl.utils.Shape;
+import se.liu.semweb.t4v.owl2shacl.utils.Shape.PropertyShape;
 import se.liu.semweb.t4v.owl2shacl.utils.ShapeUtils;
 
 public class OWL2SHACL {
     private static final Logger logger = Logger.getLogger(OWL2SHACL.class.getName());
     private static String shapeBase = "http://owl2shacl.liu.se/";
 
+    // Snapshots (and the models of incremental conversions) hold the imports
+    // already
+    static final OntModelSpec snapshotSpec = createSnapshotSpec();
+
     public static void main(String[] args) {
+        OntologyMirror.install();
         String url = "https://raw.githubusercontent.com/LiUSemWeb/T4V/dev/ontology/flatglass/0.2/flatglass.ttl";
         String s = owl2shacl(url);
         System.out.println(s);
@@ -74,25 +108,215 @@ public class OWL2SHACL {
     public static String owl2shacl(String url) {
         Model base;
         try {
-            base = ModelFactory.createDefaultModel();
-            base.read(url, "TTL");
+            base = load(url);
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+
+        // Fetching may block, the conversion is CPU-bound
+        return Workers.reason(() -> owl2shacl(base));
+    }
+
+    /**
+     * Read the ontology document at a URL (without its imports).
+     * 
+     * @param url
+     * @return
+     * @throws IllegalArgumentException if the ontology cannot be loaded
+     */
+    public static Model load(String url) {
+        try {
+            Model base = ModelFactory.createDefaultModel();
+            Timing.time("fetch", () -> base.read(url, "TTL"));
+            Timing.parsed(Lang.TURTLE.getName());
+            Timing.triples("ontology", base.size());
+            return base;
         } catch (Exception e) {
-            return "Failed to load the ontology from the URL: " + url;
+            throw new IllegalArgumentException("Failed to load the ontology from the URL: " + url, e);
+        }
+    }
+
+    /**
+     * Return the SHACL shapes of an ontology model as Turtle.
+     * 
+     * @param base
+     * @return
+     */
+    public static String owl2shacl(Model base) {
+        return owl2shacl(base, null);
+    }
+
+    /**
+     * Return the SHACL shapes of an ontology model as Turtle. In the
+     * "hierarchy" mode restrictions, domains and ranges are propagated along
+     * the class and property hierarchies by {@link HierarchyClosure} instead
+     * of the OWL micro reasoner.
+     * 
+     * @param base
+     * @param mode
+     * @return
+     */
+    public static String owl2shacl(Model base, String mode) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        owl2shacl(base, mode, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write the SHACL shapes of an ontology model, followed by the ontology
+     * itself, to a stream as Turtle. Each node shape is written (and flushed)
+     * as soon as it and the node shapes before it have been generated, so the
+     * whole result is never held in memory.
+     * 
+     * @param base
+     * @param mode
+     * @param out
+     */
+    public static void owl2shacl(Model base, String mode, OutputStream out) {
+        owl2shacl(base, mode, false, Lang.TURTLE, out);
+    }
+
+    /**
+     * Write the SHACL shapes of an ontology model, followed by the ontology
+     * itself unless only the shapes are asked for, to a stream in an RDF
+     * syntax. Turtle is written one block per subject and flushed after each
+     * node shape; other syntaxes (e.g., N-Triples, RDF Thrift or RDF
+     * Protobuf) are written by their streaming writers.
+     * 
+     * @param base
+     * @param mode
+     * @param shapesOnly if true, the ontology is not written
+     * @param lang
+     * @param out
+     * @return the index of the ontology that the shapes were generated from
+     * @throws IllegalArgumentException if the syntax cannot be streamed
+     */
+    public static OntologyIndex owl2shacl(Model base, String mode, boolean shapesOnly, Lang lang, OutputStream out) {
+        ShapeWriter writer = new ShapeWriter(base, lang, out);
+        // Reasoning happens as the index is built
+        OntModel model = Workers.reason(() -> createModel(base, mode, true));
+        OntologyIndex index = Timing.time("reason",
+                () -> Workers.reason(() -> OntologyIndex.build(model.getGraph(), base.getGraph())));
+        generate(model, index, true, shape -> writer.write(shape, index));
+        writer.finish(shapesOnly ? null : base);
+        return index;
+    }
+
+    /**
+     * Write the SHACL shapes of an ontology model like
+     * {@link #owl2shacl(Model, String, boolean, Lang, OutputStream)}, but
+     * convert the ontology incrementally from an earlier conversion of it (see
+     * {@link Conversion}), and return the conversion for the next version.
+     * 
+     * @param base
+     * @param mode
+     * @param shapesOnly if true, the ontology is not written
+     * @param lang
+     * @param previous   the conversion of an earlier version of the ontology,
+     *                   or null
+     * @param out
+     * @return
+     * @throws IllegalArgumentException if the syntax cannot be streamed
+     */
+    public static Conversion owl2shacl(Model base, String mode, boolean shapesOnly, Lang lang, Conversion previous,
+            OutputStream out) {
+        ShapeWriter writer = new ShapeWriter(base, lang, out);
+        Conversion conversion = Conversion.convert(base, mode, true, previous, writer::write);
+        writer.finish(shapesOnly ? null : conversion.getBase());
+        return conversion;
+    }
+
+    /**
+     * Return the ontology model that shapes are generated from in a mode.
+     * 
+     * @param base
+     * @param mode
+     * @param imports if false, the imports of the ontology are not read (e.g.,
+     *                because the base model holds them already)
+     * @return
+     */
+    static OntModel createModel(Model base, String mode, boolean imports) {
+        if ("hierarchy".equals(mode)) {
+            OntModel model = ModelFactory.createOntologyModel(imports ? OntModelSpec.OWL_MEM : snapshotSpec, base);
+            model.addSubModel(HierarchyClosure.materialize(model));
+            return model;
+        }
+        OntModelSpec spec = BudgetedReasoner.OWL_MEM_MICRO_RULE_INF;
+        if (!imports) {
+            spec = new OntModelSpec(spec);
+            spec.setDocumentManager(snapshotSpec.getDocumentManager());
+        }
+        return ModelFactory.createOntologyModel(spec, base);
+    }
+
+    /**
+     * Writes node shapes to a stream in an RDF syntax as they are generated,
+     * followed by an ontology. Turtle is written one block per subject and
+     * flushed after each node shape; other syntaxes (e.g., N-Triples, RDF
+     * Thrift or RDF Protobuf) are written by their streaming writers.
+     */
+    private static class ShapeWriter {
+        private final Model base;
+        private final IndentedWriter writer;
+        private final StreamRDF stream;
+        private long triples = 0;
+
+        ShapeWriter(Model base, Lang lang, OutputStream out) {
+            if (!lang.equals(Lang.TURTLE) && !StreamRDFWriter.registered(lang)) {
+                throw new IllegalArgumentException("Unsupported RDF syntax: " + lang.getName());
+            }
+            this.base = base;
+            writer = lang.equals(Lang.TURTLE) ? new IndentedWriter(out) : null;
+            stream = writer != null ? new WriterStreamRDFBlocks(writer, RIOT.getContext())
+                    : StreamRDFWriter.getWriterStream(out, lang);
+            stream.start();
+            base.getNsPrefixMap().forEach(stream::prefix);
+            stream.prefix("sh", "http://www.w3.org/ns/shacl#");
         }
 
-        OntModel model = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM_MICRO_RULE_INF, base);
-        Model m = generate(model);
-        StringWriter sq = new StringWriter();
-        m.setNsPrefixes(base.getNsPrefixMap());
-        m.setNsPrefix("sh", "http://www.w3.org/ns/shacl#");
+        void write(Shape shape, OntologyIndex index) {
+            long start = System.nanoTime();
+            ShapeUtils.write(shape, index, new StreamRDFWrapper(stream) {
+                @Override
+                public void triple(Triple triple) {
+                    triples++;
+                    super.triple(triple);
+                }
+            });
+            flush();
+            Timing.record("write", System.nanoTime() - start);
+        }
 
-        m = ShapeUtils.compressModel(m);
-        m.add(base);
-        ShapeUtils.addSHACLNames(m);
-        ShapeUtils.orderModel(m);
+        void finish(Model ontology) {
+            long start = System.nanoTime();
+            if (ontology != null) {
+                send(ontology.getGraph(), stream);
+            }
+            stream.finish();
+            flush();
+            Timing.record("write", System.nanoTime() - start);
+            Timing.triples("shapes", triples);
+        }
 
-        m.write(sq, "TTL");
-        return sq.toString();
+        private void flush() {
+            if (writer != null) {
+                writer.flush();
+            }
+        }
+    }
+
+    /**
+     * Send the triples of a graph to a stream, one subject at a time, so that
+     * each subject is written as one block.
+     * 
+     * @param graph
+     * @param stream
+     */
+    private static void send(Graph graph, StreamRDF stream) {
+        List<Node> subjects = GraphUtil.listSubjects(graph, Node.ANY, Node.ANY).toList();
+        // Named resources (e.g., node shapes) before blank nodes
+        subjects.sort(Comparator.comparing(Node::isBlank));
+        subjects.forEach(subject -> graph.find(subject, Node.ANY, Node.ANY).forEachRemaining(stream::triple));
     }
 
     /**
@@ -103,128 +327,253 @@ public class OWL2SHACL {
      * @return
      */
     public static Model generate(OntModel model) {
+        return generate(model, false);
+    }
+
+    /**
+     * Return a model containing the a set of SHACL shapes generated from an
+     * ontology model, optionally compressed by
+     * {@link ShapeUtils#compressShape(Shape, OntologyIndex)}.
+     * 
+     * @param model
+     * @param compress
+     * @return
+     */
+    public static Model generate(OntModel model, boolean compress) {
         Model shapes = ModelFactory.createDefaultModel();
+        generate(model, compress, shape -> ShapeUtils.addShape(shapes, shape));
+        return shapes;
+    }
 
-        Map<Resource, List<Restriction>> restrictionsMap = getRestrictionsMap(model);
-        restrictionsMap.entrySet().forEach(entrySet -> {
-            Resource key = entrySet.getKey();
+    /**
+     * Generate the SHACL shapes of an ontology model, optionally compressed by
+     * {@link ShapeUtils#compressShape(Shape, OntologyIndex)}, and pass each
+     * node shape to a consumer. Each node shape is generated (and compressed) by a
+     * separate task, in parallel on the fork-join pool of {@link Workers},
+     * against a read-only snapshot of the model. The consumer is called on the
+     * calling thread, in the order of the restrictions map.
+     * 
+     * The restrictions and domains that apply to each class are looked up in
+     * the model itself, since the rule engines do not return all sub-classes
+     * of unsatisfiable classes when listing every statement.
+     * 
+     * @param model
+     * @param compress
+     * @param consumer
+     */
+    public static void generate(OntModel model, boolean compress, Consumer<Shape> consumer) {
+        OntologyIndex index = Timing.time("reason", () -> Workers
+                .reason(() -> OntologyIndex.build(model.getGraph(), model.getBaseModel().getGraph())));
+        generate(model, index, compress, consumer);
+    }
 
-            List<Restriction> restrictions = entrySet.getValue();
+    /**
+     * Generate the SHACL shapes of an ontology model like
+     * {@link #generate(OntModel, boolean, Consumer)}, with the hierarchies of
+     * the model looked up in an index of it.
+     * 
+     * @param model
+     * @param index
+     * @param compress
+     * @param consumer
+     */
+    public static void generate(OntModel model, OntologyIndex index, boolean compress, Consumer<Shape> consumer) {
+        // Reasoning happens here, on the reasoning pool if the calling
+        // thread is virtual
+        Map<Resource, List<Restriction>> restrictionsMap = Timing.time("reason",
+                () -> Workers.reason(() -> getRestrictionsMap(model)));
+        Map<Resource, List<Statement>> domainStatements = getDomainStatements(index, restrictionsMap);
+        OntModel snapshot = Timing.time("reason", () -> Workers.reason(() -> snapshot(model)));
+
+        Map<String, List<Resource>> nodeShapes = getNodeShapes(restrictionsMap);
+        Workers.forEach(new ArrayList<>(nodeShapes.entrySet()), entry -> {
+            Shape shape = Timing.time("generate", () -> generate(snapshot, entry.getKey(), entry.getValue(),
+                    restrictionsMap, domainStatements, index));
+            return compress ? Timing.time("compress", () -> ShapeUtils.compressShape(shape, index)) : shape;
+        }, consumer);
+    }
 
-            Resource nodeShape = shapes.createResource(shapeBase + getShortName(key) + "Shape")
-                    .addProperty(RDF.type, ShapeUtils.NodeShape)
-                    .addProperty(ShapeUtils.targetClass, key);
+    /**
+     * Return the classes of each node shape, in the order of the restrictions
+     * map. Classes with the same short name share a node shape.
+     * 
+     * @param restrictionsMap
+     * @return
+     */
+    static Map<String, List<Resource>> getNodeShapes(Map<Resource, List<Restriction>> restrictionsMap) {
+        Map<String, List<Resource>> nodeShapes = new LinkedHashMap<>();
+        restrictionsMap.keySet().forEach(key -> {
+            nodeShapes.computeIfAbsent(shapeBase + getShortName(key) + "Shape", k -> new ArrayList<>()).add(key);
+        });
+        return nodeShapes;
+    }
 
-            restrictions.forEach(restriction -> {
-                Resource propShape = shapes.createResource()
-                        .addProperty(ShapeUtils.path, restriction.getPropertyValue(OWL2.onProperty));
-                nodeShape.addProperty(ShapeUtils.property, propShape);
+    /**
+     * Return the domain statements that apply to each class with restrictions:
+     * those with a superclass of it as the domain.
+     * 
+     * @param index
+     * @param restrictionsMap
+     * @return
+     */
+    static Map<Resource, List<Statement>> getDomainStatements(OntologyIndex index,
+            Map<Resource, List<Restriction>> restrictionsMap) {
+        Map<Resource, List<Statement>> domainStatements = new HashMap<>();
+        restrictionsMap.keySet().forEach(key -> {
+            List<Statement> statements = new ArrayList<>();
+            index.getSuperClasses(key.asNode()).forEach(domain -> {
+                index.getDomainProperties(domain).forEach(property -> {
+                    // Skip if property is part of OWL, RDF or RDFS.
+                    String p = property.toString();
+                    if (p.startsWith(RDFS.uri) || p.startsWith(RDF.uri) || p.startsWith(OWL2.NS)) {
+                        return;
+                    }
+                    statements.add(ResourceFactory.createStatement(key.getModel().wrapAsResource(property),
+                            RDFS.domain, key.getModel().asRDFNode(domain)));
+                });
+            });
+            if (!statements.isEmpty()) {
+                domainStatements.put(key, statements);
+            }
+        });
+        return domainStatements;
+    }
 
-                Literal max = getMaxCardinality(restriction);
-                if (max != null) {
-                    propShape.addLiteral(ShapeUtils.maxCount, max);
-                }
+    /**
+     * Return the node shape for a set of classes with the same short name.
+     * 
+     * @param model            the snapshot to read the restrictions from
+     * @param uri              the URI of the node shape
+     * @param keys             the classes
+     * @param restrictionsMap
+     * @param domainStatements the domain statements that apply to each class
+     * @param index            the index of the model
+     * @return
+     */
+    static Shape generate(OntModel model, String uri, List<Resource> keys,
+            Map<Resource, List<Restriction>> restrictionsMap, Map<Resource, List<Statement>> domainStatements,
+            OntologyIndex index) {
+        Budget.checkCurrent();
+        List<Node> targetClasses = new ArrayList<>();
+        List<PropertyShape> properties = new ArrayList<>();
 
-                Literal minCount = getMinCardinality(restriction);
-                if (minCount != null) {
-                    propShape.addProperty(ShapeUtils.minCount, minCount);
-                }
+        keys.forEach(key -> {
+            List<Restriction> restrictions = restrictionsMap.get(key);
+
+            targetClasses.add(key.asNode());
 
+            restrictions.forEach(r -> {
+                Restriction restriction = model.getRDFNode(r.asNode()).as(Restriction.class);
+                Node path = restriction.getPropertyValue(OWL2.onProperty).asNode();
+                Literal max = getMaxCardinality(restriction);
+                Literal minCount = getMinCardinality(restriction);
                 RDFNode value = restriction.getPropertyValue(OWL2.hasValue);
-                if (value != null) {
-                    propShape.addProperty(ShapeUtils.hasValue, value);
-                }
 
                 // oneOf
                 Set<Resource> possibleValues = getPossibleValues(restriction, false);
-                if (possibleValues != null) {
-                    propShape.addProperty(ShapeUtils.in,
-                            shapes.createList(possibleValues.iterator()));
-                }
+                List<Node> in = possibleValues != null ? asNodes(possibleValues) : null;
 
                 // onClass, someValuesFrom, domain
-                List<RDFNode> possibleClasses = getPossibleClasses(restriction, model);
-                if (possibleValues == null && possibleClasses != null) {
-                    if (possibleClasses.size() == 1) {
-                        propShape.addProperty(ShapeUtils.class_, possibleClasses.get(0));
-                    } else {
-                        List<Resource> list = new ArrayList<>();
-                        possibleClasses.forEach(d -> {
-                            list.add(shapes.createResource()
-                                    .addProperty(ShapeUtils.class_, d));
-                        });
-                        propShape.addProperty(ShapeUtils.or, shapes.createList(list.iterator()));
-                    }
-                }
-
-                List<RDFNode> possibleDatatypes = getPossibleDatatypes(restriction, model);
-                if (possibleDatatypes != null) {
-                    if (possibleDatatypes.size() == 1) {
-                        propShape.addProperty(ShapeUtils.datatype, possibleDatatypes.get(0));
-                    } else {
-                        List<Resource> list = new ArrayList<>();
-                        possibleDatatypes.forEach(d -> {
-                            list.add(shapes.createResource()
-                                    .addProperty(ShapeUtils.datatype, d));
-                        });
-                        propShape.addProperty(ShapeUtils.or, shapes.createList(list.iterator()));
-                    }
-                }
+                List<RDFNode> possibleClasses = getPossibleClasses(restriction, index);
+                List<Node> classes = possibleValues == null && possibleClasses != null ? asNodes(possibleClasses)
+                        : null;
+
+                List<RDFNode> possibleDatatypes = getPossibleDatatypes(restriction, index);
+                List<Node> datatypes = possibleDatatypes != null ? asNodes(possibleDatatypes) : null;
+
+                properties.add(new PropertyShape(path, null,
+                        minCount != null ? minCount.asNode() : null,
+                        max != null ? max.asNode() : null,
+                        value != null ? value.asNode() : null,
+                        in,
+                        classes != null && classes.size() == 1 ? classes : List.of(),
+                        datatypes != null && datatypes.size() == 1 ? datatypes : List.of(),
+                        classes != null && classes.size() != 1 ? classes : null,
+                        datatypes != null && datatypes.size() != 1 ? datatypes : null));
             });
         });
 
-        restrictionsMap.entrySet().forEach(entrySet -> {
-            Resource key = entrySet.getKey();
-            Resource nodeShape = shapes.createResource(shapeBase + getShortName(key) + "Shape");
+        // Paths of the property shapes of the node shape
+        Set<Node> shapePaths = new HashSet<>();
+        properties.forEach(propShape -> shapePaths.add(propShape.path()));
 
-            model.listStatements(null, RDFS.domain, (RDFNode) null).forEach(stmt -> {
+        keys.forEach(key -> {
+            domainStatements.getOrDefault(key, List.of()).forEach(stmt -> {
                 Resource property = stmt.getSubject();
-                Resource domain = stmt.getObject().asResource();
-
-                // Skip if property is part of OWL, RDF or RDFS.
-                String p = property.toString();
-                if (p.startsWith(RDFS.uri) || p.startsWith(RDF.uri) || p.startsWith(OWL2.NS)) {
-                    return;
-                }
-
-                // Skip if key not subclass of domain
-                if (!model.contains(key, RDFS.subClassOf, domain)) {
-                    return;
-                }
 
                 // Skip if already added to shape
-                String queryString = String.format(
-                        "PREFIX sh: <http://www.w3.org/ns/shacl#>\n" +
-                        "ASK\n" +
-                        "WHERE {\n" +
-                        "   <%s> sh:property/sh:path <%s> .\n" +
-                        "}",
-                        nodeShape, property);
-
-                if (executeSparqlAsk(queryString, shapes)) {
+                if (shapePaths.contains(property.asNode())) {
                     return;
                 }
 
-                Resource propShape = shapes.createResource()
-                        .addProperty(ShapeUtils.path, property)
-                        .addProperty(ShapeUtils.targetClass, key);
-
-                model.listObjectsOfProperty(property, RDFS.range).forEach(range -> {
-                    if (model.contains(range.asResource(), RDF.type, RDFS.Datatype)) {
-                        propShape.addProperty(ShapeUtils.datatype, range);
-                        nodeShape.addProperty(ShapeUtils.property, propShape);
-                    } else {
-                        if (model.contains(range.asResource(), RDF.type, RDFS.Class)) {
-                            propShape.addProperty(ShapeUtils.class_, range);
-                            nodeShape.addProperty(ShapeUtils.property, propShape);
-                        }
+                List<Node> ranges = new ArrayList<>();
+                List<Node> datatypes = new ArrayList<>();
+                index.getRanges(property.asNode()).forEach(range -> {
+                    if (index.isDatatype(range)) {
+                        datatypes.add(range);
+                    } else if (index.isClass(range)) {
+                        ranges.add(range);
                     }
                 });
-
+                List<Node> classes = mostSpecific(ranges, index);
+                if (!classes.isEmpty() || !datatypes.isEmpty()) {
+                    properties.add(new PropertyShape(property.asNode(), key.asNode(), null, null, null, null,
+                            classes, datatypes, null, null));
+                    shapePaths.add(property.asNode());
+                }
             });
         });
 
-        return shapes;
+        return new Shape(NodeFactory.createURI(uri), targetClasses, properties);
+    }
+
+    /**
+     * Return the classes that are not owl:Thing, rdfs:Resource or a
+     * super-class of another of the classes (e.g., the ranges that the
+     * reasoner infers from the declared range), which would only weaken the
+     * sh:class constraints of the others.
+     * 
+     * @param classes
+     * @param index
+     * @return
+     */
+    static List<Node> mostSpecific(List<Node> classes, OntologyIndex index) {
+        List<Node> specific = new ArrayList<>();
+        for (Node cls : classes) {
+            if (cls.equals(OWL2.Thing.asNode()) || cls.equals(RDFS.Resource.asNode())) {
+                continue;
+            }
+            // Equivalent classes are both kept
+            if (classes.stream().noneMatch(other -> !other.equals(cls) && index.isSubClassOf(other, cls)
+                    && !index.isSubClassOf(cls, other))) {
+                specific.add(cls);
+            }
+        }
+        return specific;
+    }
+
+    private static List<Node> asNodes(Collection<? extends RDFNode> nodes) {
+        List<Node> list = new ArrayList<>(nodes.size());
+        nodes.forEach(node -> list.add(node.asNode()));
+        return list;
+    }
+
+    /**
+     * Return a read-only view of an ontology model that can be read by several
+     * threads at once. The statements of an inference model are copied, since
+     * the rule engines are not thread-safe; other models are returned as they
+     * are.
+     * 
+     * @param model
+     * @return
+     */
+    public static OntModel snapshot(OntModel model) {
+        if (model.getReasoner() == null) {
+            return model;
+        }
+        Model copy = ModelFactory.createDefaultModel().add(model);
+        return ModelFactory.createOntologyModel(snapshotSpec,
+                ModelFactory.createModelForGraph(new GraphReadOnly(copy.getGraph())));
     }
 
     /**
@@ -249,11 +598,12 @@ public class OWL2SHACL {
      * Return a list of allowed classes for a restriction or null.
      * 
      * @param restriction
+     * @param index       the index of the model of the restriction
      * @return
      */
-    public static List<RDFNode> getPossibleClasses(Restriction restriction, Model model) {
+    public static List<RDFNode> getPossibleClasses(Restriction restriction, OntologyIndex index) {
         Resource prop = restriction.getOnProperty();
-        if (!prop.hasProperty(RDF.type, OWL2.ObjectProperty)) {
+        if (!index.isObjectProperty(prop.asNode())) {
             return null;
         }
 
@@ -270,14 +620,11 @@ public class OWL2SHACL {
         }
 
         // Class by range of property
-        List<RDFNode> list = model.listObjectsOfProperty(prop, RDFS.range).toList();
-        list.remove(OWL2.Thing);
-        list.remove(RDFS.Resource);
+        List<RDFNode> list = getRanges(prop, index);
         if (list.isEmpty()) {
             return null;
         } else if (list.size() > 1) {
-            list.forEach(System.out::println);
-            logger.warning("Intersection for range not yet supported: " + prop);
+            logger.warning("Intersection for range not yet supported: " + prop + " " + list);
             return null;
         } else {
             return unionOfOrValue(list.get(0).asResource());
@@ -288,11 +635,12 @@ public class OWL2SHACL {
      * Return a list of allowed datatypes for a restriction or null.
      * 
      * @param restriction
+     * @param index       the index of the model of the restriction
      * @return
      */
-    public static List<RDFNode> getPossibleDatatypes(Restriction restriction, Model model) {
+    public static List<RDFNode> getPossibleDatatypes(Restriction restriction, OntologyIndex index) {
         Resource prop = restriction.getOnProperty().asResource();
-        if (!prop.hasProperty(RDF.type, OWL2.DatatypeProperty)) {
+        if (!index.isDatatypeProperty(prop.asNode())) {
             return null;
         }
         // Qualified cardinality restriction defines range
@@ -308,14 +656,11 @@ public class OWL2SHACL {
         }
 
         // Data range of property
-        List<RDFNode> list = model.listObjectsOfProperty(prop, RDFS.range).toList();
-        list.remove(OWL2.Thing);
-        list.remove(RDFS.Resource);
+        List<RDFNode> list = getRanges(prop, index);
         if (list.isEmpty()) {
             return null;
         } else if (list.size() > 1) {
-            list.forEach(System.out::println);
-            logger.warning("Intersection for range not yet supported: " + prop);
+            logger.warning("Intersection for range not yet supported: " + prop + " " + list);
             return null;
         } else {
             return unionOfOrValue(list.get(0).asResource());
@@ -323,6 +668,19 @@ public class OWL2SHACL {
 
     }
 
+    /**
+     * Return the ranges of a property, other than owl:Thing and rdfs:Resource.
+     */
+    private static List<RDFNode> getRanges(Resource prop, OntologyIndex index) {
+        List<RDFNode> list = new ArrayList<>();
+        index.getRanges(prop.asNode()).forEach(range -> {
+            if (!range.equals(OWL2.Thing.asNode()) && !range.equals(RDFS.Resource.asNode())) {
+                list.add(prop.getModel().asRDFNode(range));
+            }
+        });
+        return list;
+    }
+
     /**
      * Return a list representing the union values of a resource, or only the value
      * if the resource is not a union.
@@ -467,6 +825,14 @@ public class OWL2SHACL {
         return restriction.getPropertyValue(OWL2.hasValue);
     }
 
+    private static OntModelSpec createSnapshotSpec() {
+        OntDocumentManager documentManager = new OntDocumentManager((String) null);
+        documentManager.setProcessImports(false);
+        OntModelSpec spec = new OntModelSpec(OntModelSpec.OWL_MEM);
+        spec.setDocumentManager(documentManager);
+        return spec;
+    }
+
     /**
      * Execute SPARQL select query.
      * 
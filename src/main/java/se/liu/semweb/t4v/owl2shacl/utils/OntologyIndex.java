@@ -0,0 +1,263 @@
+package se.liu.semweb.t4v.owl2shacl.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.apache.jena.vocabulary.OWL2;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+
+/**
+ * An immutable index of the class and property hierarchies of an ontology,
+ * built once per conversion and read by all node shape tasks, so that
+ * hierarchy questions are answered by map lookups instead of walks over the
+ * ontology graph.
+ *
+ * The kinds of properties and resources, the superclasses of each class, and
+ * the domains and ranges of properties are taken from the (inferred) ontology
+ * model. The labels and sort keys of properties are taken from the ontology
+ * document only, where the sort key of a property is its chain of asserted
+ * superproperties, so that sub-properties are ordered after their parents.
+ *
+ * An index can record each lookup that depends on the ontology as the
+ * statement pattern it answers (see {@link #recording(Consumer)}), e.g., for
+ * the incremental conversion to know what a node shape was generated from.
+ */
+public class OntologyIndex {
+    private final Set<Node> objectProperties;
+    private final Set<Node> datatypeProperties;
+    private final Set<Node> classes;
+    private final Set<Node> datatypes;
+    private final Map<Node, Set<Node>> superClasses;
+    private final Map<Node, List<Node>> domainProperties;
+    private final Map<Node, List<Node>> ranges;
+    private final Map<Node, List<Node>> labels;
+    private final Map<Node, String> sortKeys;
+    private final Consumer<Triple> lookups;
+
+    private OntologyIndex(OntologyIndex index, Consumer<Triple> lookups) {
+        this.objectProperties = index.objectProperties;
+        this.datatypeProperties = index.datatypeProperties;
+        this.classes = index.classes;
+        this.datatypes = index.datatypes;
+        this.superClasses = index.superClasses;
+        this.domainProperties = index.domainProperties;
+        this.ranges = index.ranges;
+        this.labels = index.labels;
+        this.sortKeys = index.sortKeys;
+        this.lookups = lookups;
+    }
+
+    private OntologyIndex(Graph graph, Graph document) {
+        objectProperties = subjects(graph, RDF.type.asNode(), OWL2.ObjectProperty.asNode());
+        datatypeProperties = subjects(graph, RDF.type.asNode(), OWL2.DatatypeProperty.asNode());
+        classes = subjects(graph, RDF.type.asNode(), RDFS.Class.asNode());
+        datatypes = subjects(graph, RDF.type.asNode(), RDFS.Datatype.asNode());
+
+        Map<Node, Set<Node>> superClasses = new HashMap<>();
+        graph.find(Node.ANY, RDFS.subClassOf.asNode(), Node.ANY).forEachRemaining(t -> {
+            superClasses.computeIfAbsent(t.getSubject(), k -> new HashSet<>()).add(t.getObject());
+        });
+        this.superClasses = superClasses;
+
+        Map<Node, List<Node>> domainProperties = new LinkedHashMap<>();
+        graph.find(Node.ANY, RDFS.domain.asNode(), Node.ANY).forEachRemaining(t -> {
+            if (!t.getObject().isLiteral()) {
+                domainProperties.computeIfAbsent(t.getObject(), k -> new ArrayList<>()).add(t.getSubject());
+            }
+        });
+        this.domainProperties = domainProperties;
+        ranges = objects(graph, RDFS.range.asNode());
+        labels = objects(document, RDFS.label.asNode());
+
+        // Sort keys of the properties with asserted superproperties
+        Map<Node, Node> superProperties = new HashMap<>();
+        document.find(Node.ANY, RDFS.subPropertyOf.asNode(), Node.ANY).forEachRemaining(t -> {
+            // The first superproperty by name, so that keys do not depend on
+            // the order of the statements
+            if (t.getObject().isURI() && !t.getObject().equals(t.getSubject())) {
+                superProperties.merge(t.getSubject(), t.getObject(),
+                        (a, b) -> a.toString().compareTo(b.toString()) <= 0 ? a : b);
+            }
+        });
+        Map<Node, String> sortKeys = new HashMap<>();
+        superProperties.keySet().forEach(prop -> {
+            StringBuilder key = new StringBuilder(prop.toString());
+            Set<Node> visited = new HashSet<>(Set.of(prop));
+            Node superProp = superProperties.get(prop);
+            while (superProp != null && visited.add(superProp)) {
+                key.insert(0, superProp + " -> ");
+                superProp = superProperties.get(superProp);
+            }
+            sortKeys.put(prop, key.toString());
+        });
+        this.sortKeys = sortKeys;
+        lookups = pattern -> {
+        };
+    }
+
+    /**
+     * Return the index of an ontology.
+     *
+     * @param graph    the (inferred) ontology, with its imports
+     * @param document the ontology document, that labels and sort keys are
+     *                 taken from
+     * @return
+     */
+    public static OntologyIndex build(Graph graph, Graph document) {
+        return new OntologyIndex(graph, document);
+    }
+
+    /**
+     * Return a view of the index that passes the statement pattern of each
+     * lookup that depends on the ontology to a consumer.
+     *
+     * @param lookups
+     * @return
+     */
+    public OntologyIndex recording(Consumer<Triple> lookups) {
+        return new OntologyIndex(this, lookups);
+    }
+
+    /**
+     * @param property
+     * @return true if the property is an owl:ObjectProperty
+     */
+    public boolean isObjectProperty(Node property) {
+        lookup(property, RDF.type.asNode(), OWL2.ObjectProperty.asNode());
+        return objectProperties.contains(property);
+    }
+
+    /**
+     * @param property
+     * @return true if the property is an owl:DatatypeProperty
+     */
+    public boolean isDatatypeProperty(Node property) {
+        lookup(property, RDF.type.asNode(), OWL2.DatatypeProperty.asNode());
+        return datatypeProperties.contains(property);
+    }
+
+    /**
+     * @param resource
+     * @return true if the resource is an rdfs:Class
+     */
+    public boolean isClass(Node resource) {
+        lookup(resource, RDF.type.asNode(), RDFS.Class.asNode());
+        return classes.contains(resource);
+    }
+
+    /**
+     * @param resource
+     * @return true if the resource is an rdfs:Datatype
+     */
+    public boolean isDatatype(Node resource) {
+        lookup(resource, RDF.type.asNode(), RDFS.Datatype.asNode());
+        return datatypes.contains(resource);
+    }
+
+    /**
+     * Return true if a class is a sub-class of another class. Like the
+     * ontology, a class is only a sub-class of itself if it says so.
+     *
+     * @param cls
+     * @param superClass
+     * @return
+     */
+    public boolean isSubClassOf(Node cls, Node superClass) {
+        lookup(cls, RDFS.subClassOf.asNode(), superClass);
+        return superClasses.getOrDefault(cls, Set.of()).contains(superClass);
+    }
+
+    /**
+     * @param cls
+     * @return the superclasses of a class (including restrictions)
+     */
+    public Set<Node> getSuperClasses(Node cls) {
+        lookup(cls, RDFS.subClassOf.asNode(), Node.ANY);
+        return Collections.unmodifiableSet(superClasses.getOrDefault(cls, Set.of()));
+    }
+
+    /**
+     * Return the rdfs:subClassOf statements between distinct named classes,
+     * e.g., for validating data against the shapes of the ontology, where
+     * sh:class constraints follow rdfs:subClassOf in the data graph.
+     *
+     * @return
+     */
+    public Graph getClassHierarchy() {
+        Graph hierarchy = GraphFactory.createDefaultGraph();
+        superClasses.forEach((cls, supers) -> supers.forEach(superClass -> {
+            if (cls.isURI() && superClass.isURI() && !cls.equals(superClass)) {
+                hierarchy.add(Triple.create(cls, RDFS.subClassOf.asNode(), superClass));
+            }
+        }));
+        return hierarchy;
+    }
+
+    /**
+     * @param cls
+     * @return the properties that have a class as a domain
+     */
+    public List<Node> getDomainProperties(Node cls) {
+        lookup(Node.ANY, RDFS.domain.asNode(), cls);
+        return Collections.unmodifiableList(domainProperties.getOrDefault(cls, List.of()));
+    }
+
+    /**
+     * @param property
+     * @return the ranges of a property
+     */
+    public List<Node> getRanges(Node property) {
+        lookup(property, RDFS.range.asNode(), Node.ANY);
+        return Collections.unmodifiableList(ranges.getOrDefault(property, List.of()));
+    }
+
+    /**
+     * @param resource
+     * @return the labels of a resource in the ontology document
+     */
+    public List<Node> getLabels(Node resource) {
+        return Collections.unmodifiableList(labels.getOrDefault(resource, List.of()));
+    }
+
+    /**
+     * Return the key that properties are sorted by: the property, preceded by
+     * its chain of superproperties in the ontology document (e.g.,
+     * "http://ex/hasPart -> http://ex/hasComponent").
+     *
+     * @param property
+     * @return
+     */
+    public String getSortKey(Node property) {
+        return sortKeys.getOrDefault(property, property.toString());
+    }
+
+    private void lookup(Node s, Node p, Node o) {
+        lookups.accept(Triple.createMatch(s, p, o));
+    }
+
+    private static Set<Node> subjects(Graph graph, Node p, Node o) {
+        Set<Node> subjects = new HashSet<>();
+        graph.find(Node.ANY, p, o).forEachRemaining(t -> subjects.add(t.getSubject()));
+        return subjects;
+    }
+
+    private static Map<Node, List<Node>> objects(Graph graph, Node p) {
+        Map<Node, List<Node>> objects = new HashMap<>();
+        graph.find(Node.ANY, p, Node.ANY).forEachRemaining(t -> {
+            objects.computeIfAbsent(t.getSubject(), k -> new ArrayList<>()).add(t.getObject());
+        });
+        return objects;
+    }
+}
@@ -1,29 +1,37 @@
 package se.liu.semweb.t4v.owl2shacl.utils;
 
+import java.util.List;
 import java.util.logging.Logger;
 
-import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.ModelFactory;
-import org.apache.jena.rdf.model.RDFList;
-import org.apache.jena.rdf.model.RDFNode;
-import org.apache.jena.rdf.model.Resource;
-import org.apache.jena.rdf.model.Statement;
-import org.apache.jena.vocabulary.RDF;
-import org.apache.jena.vocabulary.RDFS;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+
+import se.liu.semweb.t4v.owl2shacl.utils.Shape.PropertyShape;
 
 public class PropertyConstraint {
-    public Resource path = null;
-    public Resource class_ = null;
-    public Resource datatype = null;
-    public RDFNode value = null;
+    public Node path = null;
+    public Node class_ = null;
+    public Node datatype = null;
+    public Node value = null;
     public Integer minCount = 0;
     public Integer maxCount = null;
-    public RDFList in = null;
-    public RDFList or = null;
+    public List<Node> in = null;
+    public List<Node> orClasses = null;
+    public List<Node> orDatatypes = null;
+
+    private final OntologyIndex index;
 
     private static Logger logger = Logger.getLogger(PropertyConstraint.class.getName());
 
-    public void add(Resource propertyShape) {
+    /**
+     * @param index the index of the ontology of the merged shapes
+     */
+    public PropertyConstraint(OntologyIndex index) {
+        this.index = index;
+    }
+
+    public void add(PropertyShape propertyShape) {
         setPath(propertyShape);
         setMinCount(propertyShape);
         setMaxCount(propertyShape);
@@ -36,12 +44,12 @@ public class PropertyConstraint {
 
     /**
      * Set the value of the sh:path property.
-     * 
+     *
      * @param propertyShape
      */
-    public void setPath(Resource propertyShape) {
-        Resource path = propertyShape.getPropertyResourceValue(ShapeUtils.path);
-        if (this.path != null && !this.path.equals(this.path)) {
+    public void setPath(PropertyShape propertyShape) {
+        Node path = propertyShape.path();
+        if (this.path != null && !this.path.equals(path)) {
             logger.warning("Attempting to merge incompatible paths (sh:path): " + this.path + " <-> " + path);
         } else {
             this.path = path;
@@ -50,13 +58,12 @@ public class PropertyConstraint {
 
     /**
      * Attempt to the value of the sh:minCount property.
-     * 
+     *
      * @param propertyShape
      */
-    public void setMinCount(Resource propertyShape) {
-        Statement stmt = propertyShape.getProperty(ShapeUtils.minCount);
-        if (stmt != null) {
-            int minCount = stmt.getObject().asLiteral().getInt();
+    public void setMinCount(PropertyShape propertyShape) {
+        if (propertyShape.minCount() != null) {
+            int minCount = intValue(propertyShape.minCount());
             if (this.minCount == null || this.minCount < minCount) {
                 this.minCount = minCount;
             }
@@ -65,13 +72,12 @@ public class PropertyConstraint {
 
     /**
      * Attempt to set the value of the sh:maxCount property.
-     * 
+     *
      * @param propertyShape
      */
-    public void setMaxCount(Resource propertyShape) {
-        Statement stmt = propertyShape.getProperty(ShapeUtils.maxCount);
-        if (stmt != null) {
-            int maxCount = stmt.getObject().asLiteral().getInt();
+    public void setMaxCount(PropertyShape propertyShape) {
+        if (propertyShape.maxCount() != null) {
+            int maxCount = intValue(propertyShape.maxCount());
             if (this.maxCount == null || this.maxCount > maxCount) {
                 this.maxCount = maxCount;
             }
@@ -80,12 +86,12 @@ public class PropertyConstraint {
 
     /**
      * Attempt to set the value of the sh:datatype property.
-     * 
+     *
      * @param propertyShape
      */
-    public void setDatatype(Resource propertyShape) {
-        Resource datatype = propertyShape.getPropertyResourceValue(ShapeUtils.datatype);
-        if (datatype != null) {
+    public void setDatatype(PropertyShape propertyShape) {
+        if (!propertyShape.datatypes().isEmpty()) {
+            Node datatype = propertyShape.datatypes().get(0);
             if (this.datatype != null) {
                 if (!datatype.equals(this.datatype)) {
                     logger.warning(
@@ -98,21 +104,15 @@ public class PropertyConstraint {
     }
 
     /**
-     * Attempt to set the value of the sh:class property.
-     * 
+     * Attempt to set the value of the sh:class property to the most specific
+     * class of the property shape. Each class replaces the current one if it
+     * is a sub-class of it.
+     *
      * @param propertyShape
      */
-    public void setClass(Resource propertyShape) {
-        Resource class_ = propertyShape.getPropertyResourceValue(ShapeUtils.class_);
-        if (class_ != null) {
-            if (this.class_ != null) {
-                if (this.class_.equals(class_) || class_.hasProperty(RDFS.subClassOf, this.class_)) {
-                    this.class_ = class_;
-                } else {
-                    // logger.warning(
-                    //         "Attempting to merge incompatible classes (sh:class): " + class_ + " <-> " + this.class_);
-                }
-            } else {
+    public void setClass(PropertyShape propertyShape) {
+        for (Node class_ : propertyShape.classes()) {
+            if (this.class_ == null || index.isSubClassOf(class_, this.class_)) {
                 this.class_ = class_;
             }
         }
@@ -120,13 +120,12 @@ public class PropertyConstraint {
 
     /**
      * Attempt to set the value of the sh:value property.
-     * 
+     *
      * @param propertyShape
      */
-    public void setValue(Resource propertyShape) {
-        Statement stmt = propertyShape.getProperty(ShapeUtils.hasValue);
-        if (stmt != null) {
-            RDFNode value = stmt.getObject();
+    public void setValue(PropertyShape propertyShape) {
+        Node value = propertyShape.hasValue();
+        if (value != null) {
             if (this.value != null && !this.value.equals(value)) {
                 logger.warning("Attempting to merge incomaptible values (sh:value): " + value + " <-> " + this.value);
             } else {
@@ -137,67 +136,66 @@ public class PropertyConstraint {
 
     /**
      * Attempt to set the value of the sh:in property.
-     * 
+     *
      * @param propertyShape
      */
-    public void setIn(Resource propertyShape) {
-        Resource in = propertyShape.getPropertyResourceValue(ShapeUtils.in);
-        if (in != null) {
-            this.in = propertyShape.getModel().getList(in);
+    public void setIn(PropertyShape propertyShape) {
+        if (propertyShape.in() != null) {
+            this.in = propertyShape.in();
         }
     }
 
     /**
      * Attempt to set the value of the sh:or property.
-     * 
+     *
      * @param propertyShape
      */
-    public void setOr(Resource propertyShape) {
-        Resource or = propertyShape.getPropertyResourceValue(ShapeUtils.or);
-        if (or != null) {
-            this.or = propertyShape.getModel().getList(or);
+    public void setOr(PropertyShape propertyShape) {
+        if (propertyShape.orClasses() != null) {
+            this.orClasses = propertyShape.orClasses();
+            this.orDatatypes = null;
+        } else if (propertyShape.orDatatypes() != null) {
+            this.orClasses = null;
+            this.orDatatypes = propertyShape.orDatatypes();
         }
     }
 
     /**
-     * Return the a resource representing the merged property shape. The resource is
-     * created using a unique default model.
-     * 
+     * Return the merged property shape.
+     *
      * @return
      */
-    public Resource get() {
-        Model m = ModelFactory.createDefaultModel();
-        Resource propertyShape = m.createResource()
-                .addProperty(RDF.type, ShapeUtils.PropertyShape)
-                .addProperty(ShapeUtils.path, path);
-
+    public PropertyShape get() {
         // if value is set, cardinalities are not relevant
+        Node min = null;
+        Node max = null;
         if (value == null) {
-            propertyShape.addProperty(ShapeUtils.minCount, m.createTypedLiteral(minCount));
+            min = NodeFactory.createLiteralByValue(minCount, XSDDatatype.XSDint);
             if (maxCount != null) {
-                propertyShape.addProperty(ShapeUtils.maxCount, m.createTypedLiteral(maxCount));
+                max = NodeFactory.createLiteralByValue(maxCount, XSDDatatype.XSDint);
             }
         }
 
         // Constraints order: sh:value -> sh:in -> sh:class -> sh:datatype -> sh:or
         if (value != null) {
-            propertyShape.addProperty(ShapeUtils.hasValue, value);
+            return new PropertyShape(path, null, min, max, value, null, List.of(), List.of(), null, null);
         } else if (in != null) {
-            propertyShape.addProperty(ShapeUtils.in, m.createList(in.iterator()));
+            return new PropertyShape(path, null, min, max, null, in, List.of(), List.of(), null, null);
         } else if (class_ != null) {
-            propertyShape.addProperty(ShapeUtils.class_, class_);
+            return new PropertyShape(path, null, min, max, null, null, List.of(class_), List.of(), null, null);
         } else if (datatype != null) {
-            propertyShape.addProperty(ShapeUtils.datatype, datatype);
-        } else if (or != null) {
-            propertyShape.addProperty(ShapeUtils.or, m.createList(or.iterator()));
-            or.iterator().forEach(item -> {
-                if (item.isResource()) {
-                    item.getModel().listStatements(item.asResource(), null, (RDFNode) null).forEach(m::add);
-                }
-            });
+            return new PropertyShape(path, null, min, max, null, null, List.of(), List.of(datatype), null, null);
         }
-
-        return propertyShape;
+        return new PropertyShape(path, null, min, max, null, null, List.of(), List.of(), orClasses, orDatatypes);
     }
 
+    /**
+     * Return the value of an integer literal.
+     *
+     * @param literal
+     * @return
+     */
+    static int intValue(Node literal) {
+        return ((Number) literal.getLiteralValue()).intValue();
+    }
 }
@@ -0,0 +1,38 @@
+package se.liu.semweb.t4v.owl2shacl.utils;
+
+import java.util.List;
+
+import org.apache.jena.graph.Node;
+
+/**
+ * A SHACL node shape with its property shapes. Shapes are generated,
+ * compressed, named and ordered as plain objects, and only turned into RDF
+ * statements when they are written (see {@link ShapeUtils}).
+ *
+ * @param uri           the node shape
+ * @param targetClasses the values of sh:targetClass
+ * @param properties    the property shapes (sh:property)
+ */
+public record Shape(Node uri, List<Node> targetClasses, List<PropertyShape> properties) {
+
+    /**
+     * A property shape. Nodes and lists that are not set are null; a shape can
+     * have any number of sh:class and sh:datatype values.
+     *
+     * @param path        the value of sh:path
+     * @param targetClass the value of sh:targetClass (of shapes found by the
+     *                    domain of a property)
+     * @param minCount    the sh:minCount literal
+     * @param maxCount    the sh:maxCount literal
+     * @param hasValue    the value of sh:hasValue
+     * @param in          the members of the sh:in list
+     * @param classes     the values of sh:class
+     * @param datatypes   the values of sh:datatype
+     * @param orClasses   the classes of a sh:or list of sh:class constraints
+     * @param orDatatypes the datatypes of a sh:or list of sh:datatype
+     *                    constraints
+     */
+    public record PropertyShape(Node path, Node targetClass, Node minCount, Node maxCount, Node hasValue,
+            List<Node> in, List<Node> classes, List<Node> datatypes, List<Node> orClasses, List<Node> orDatatypes) {
+    }
+}
@@ -1,24 +1,24 @@
 package se.liu.semweb.t4v.owl2shacl.utils;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.Property;
-import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.ResourceFactory;
-import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.riot.system.StreamRDF;
 import org.apache.jena.shacl.vocabulary.SHACL;
-import org.apache.jena.vocabulary.OWL2;
 import org.apache.jena.vocabulary.RDF;
-import org.apache.jena.vocabulary.RDFS;
 
 public class ShapeUtils {
     // Property and Resource versions of SHACL vocab
@@ -38,168 +38,141 @@ public class ShapeUtils {
     public static Property name = ResourceFactory.createProperty(SHACL.name.getURI());
     public static Property order = ResourceFactory.createProperty(SHACL.order.getURI());
 
-    /**
-     * Return a compressed version of a SHACL model.
-     * 
-     * @param model
-     * @return
-     */
-    public static Model compressModel(Model model) {
-        Model m = ModelFactory.createDefaultModel();
-        model.listSubjectsWithProperty(RDF.type, ShapeUtils.NodeShape).forEach(nodeShape -> {
-            m.add(ShapeUtils.compressShape(nodeShape));
-        });
-        m.setNsPrefixes(model.getNsPrefixMap());
-        return m;
-    }
-
-    /**
-     * Add sh:order to the fields all SHACL shapes.
-     * 
-     * @param model
-     * @return
-     */
-    public static void orderModel(Model model) {
-        model.listSubjectsWithProperty(RDF.type, ShapeUtils.NodeShape).forEach(nodeShape -> {
-            List<Resource> props = new ArrayList<>();
-            model.listObjectsOfProperty(nodeShape, ShapeUtils.property).forEach(p -> {
-                props.add(p.asResource());
-            });
-            applyOrder(props);
-        });
-
-    }
-
     /**
      * Return a compressed version of a SHACL node shape, where property shapes
      * constraints defined over the same property are merged into a single property
      * shape.
      * 
-     * @param nodeShape
+     * @param shape
+     * @param index the index of the ontology of the shape
      * @return
      */
-    public static Model compressShape(Resource nodeShape) {
-        // Create compressed model and add the basic shape with target class
-        Model compressed = ModelFactory.createDefaultModel();
-        compressed.add(nodeShape, RDF.type, ShapeUtils.NodeShape);
-        compressed.add(nodeShape, ShapeUtils.targetClass, nodeShape.getPropertyResourceValue(ShapeUtils.targetClass));
-
+    public static Shape compressShape(Shape shape, OntologyIndex index) {
         // Iterate the constraints
-        Map<String, PropertyConstraint> propertyShapeMap = new HashMap<>();
-        nodeShape.listProperties(ShapeUtils.property).forEach(stmt -> {
-            // Get the path
-            String path = stmt.getObject().asResource().getPropertyResourceValue(ShapeUtils.path).toString();
-            if (!propertyShapeMap.containsKey(path)) {
-                propertyShapeMap.put(path, new PropertyConstraint());
-            }
+        Map<Node, PropertyConstraint> propertyShapeMap = new LinkedHashMap<>();
+        shape.properties().forEach(propertyShape -> {
             // Add the constraint to the property constraint class (this will "flatten" the
             // constraint)
-            PropertyConstraint pc = propertyShapeMap.get(path);
-            pc.add(stmt.getObject().asResource());
-        });
-        // Each property shape is associated with its own model.
-        // Add the constraints and corresponding model to the compressed shape.
-        propertyShapeMap.values().forEach(propertyShapeConstraint -> {
-            Resource propertyShape = propertyShapeConstraint.get();
-            compressed.add(nodeShape, ShapeUtils.property, propertyShape);
-            compressed.add(propertyShape.getModel());
+            propertyShapeMap.computeIfAbsent(propertyShape.path(), path -> new PropertyConstraint(index)).add(propertyShape);
         });
-        return compressed;
+        List<Shape.PropertyShape> properties = new ArrayList<>();
+        propertyShapeMap.values().forEach(propertyShapeConstraint -> properties.add(propertyShapeConstraint.get()));
+        return new Shape(shape.uri(), shape.targetClasses(), properties);
     }
 
     /**
-     * Generate sort keys for all classes and properties in a model. No inferencing
-     * should apply to the model (i.e., only explicit sub-class and sup-property
-     * relations should be used when generating the keys).
-     * 
+     * Add the statements of a node shape to a model.
+     *
      * @param model
-     * @return
+     * @param shape
      */
-    public static Map<Resource, String> generateSortKeyMap(Model model) {
-        Map<Resource, String> sortKeyMap = new HashMap<>();
+    public static void addShape(Model model, Shape shape) {
+        Graph graph = model.getGraph();
+        send(shape, null, graph::add);
+    }
 
-        // class keys
-        model.listResourcesWithProperty(RDF.type, OWL2.Class).forEach(cls -> {
-            String key = cls.toString();
-            Resource superCls = cls;
-            while (superCls != null) {
-                superCls = superCls.getPropertyResourceValue(RDFS.subClassOf);
-                if (superCls != null && !superCls.isAnon()) {
-                    key = superCls + " -> " + key;
-                }
-            }
-            sortKeyMap.put(cls, key);
-        });
+    /**
+     * Write the statements of a node shape to a stream, with names based on
+     * the labels of an ontology and sh:order added to its property shapes. The
+     * node shape is written first, then each property shape followed by its
+     * lists, so that each subject is written as one block.
+     *
+     * @param shape
+     * @param index the index of the ontology
+     * @param stream
+     */
+    public static void write(Shape shape, OntologyIndex index, StreamRDF stream) {
+        send(shape, index, stream::triple);
+    }
 
-        // object property keys
-        model.listResourcesWithProperty(RDF.type, OWL2.ObjectProperty).forEach(prop -> {
-            String key = prop.toString();
-            Resource superProp = prop;
-            while (superProp != null) {
-                superProp = superProp.getPropertyResourceValue(RDFS.subPropertyOf);
-                if (superProp != null) {
-                    key = superProp + " -> " + key;
-                }
-            }
-            sortKeyMap.put(prop, key);
+    private static void send(Shape shape, OntologyIndex index, Consumer<Triple> output) {
+        List<Shape.PropertyShape> properties = new ArrayList<>(shape.properties());
+        if (index != null) {
+            applyOrder(properties, index);
+        }
+        List<Node> nodes = new ArrayList<>();
+
+        output.accept(Triple.create(shape.uri(), RDF.type.asNode(), NodeShape.asNode()));
+        shape.targetClasses().forEach(cls -> output.accept(Triple.create(shape.uri(), targetClass.asNode(), cls)));
+        properties.forEach(propertyShape -> {
+            Node node = NodeFactory.createBlankNode();
+            nodes.add(node);
+            output.accept(Triple.create(shape.uri(), property.asNode(), node));
         });
 
-        // data property keys
-        model.listResourcesWithProperty(RDF.type, OWL2.DatatypeProperty).forEach(prop -> {
-            String key = prop.toString();
-            Resource superProp = prop;
-            while (superProp != null) {
-                superProp = superProp.getPropertyResourceValue(RDFS.subPropertyOf);
-                if (superProp != null) {
-                    key = superProp + " -> " + key;
-                }
+        for (int i = 0; i < properties.size(); i++) {
+            Shape.PropertyShape propertyShape = properties.get(i);
+            Node node = nodes.get(i);
+            List<Triple> lists = new ArrayList<>();
+            output.accept(Triple.create(node, RDF.type.asNode(), PropertyShape.asNode()));
+            output.accept(Triple.create(node, path.asNode(), propertyShape.path()));
+            send(node, targetClass, propertyShape.targetClass(), output);
+            send(node, minCount, propertyShape.minCount(), output);
+            send(node, maxCount, propertyShape.maxCount(), output);
+            send(node, hasValue, propertyShape.hasValue(), output);
+            if (propertyShape.in() != null) {
+                output.accept(Triple.create(node, in.asNode(), list(propertyShape.in(), lists)));
             }
-            sortKeyMap.put(prop, key);
-        });
-        return sortKeyMap;
+            propertyShape.classes().forEach(cls -> send(node, class_, cls, output));
+            propertyShape.datatypes().forEach(datatype -> send(node, ShapeUtils.datatype, datatype, output));
+            if (propertyShape.orClasses() != null) {
+                output.accept(Triple.create(node, or.asNode(), list(alternatives(class_, propertyShape.orClasses(),
+                        lists), lists)));
+            }
+            if (propertyShape.orDatatypes() != null) {
+                output.accept(Triple.create(node, or.asNode(), list(alternatives(ShapeUtils.datatype,
+                        propertyShape.orDatatypes(), lists), lists)));
+            }
+            if (index != null) {
+                index.getLabels(propertyShape.path()).forEach(label -> send(node, name, label, output));
+                send(node, order, NodeFactory.createLiteralByValue(i + 1, XSDDatatype.XSDint), output);
+            }
+            lists.forEach(output);
+        }
+    }
+
+    private static void send(Node subject, Property predicate, Node object, Consumer<Triple> output) {
+        if (object != null) {
+            output.accept(Triple.create(subject, predicate.asNode(), object));
+        }
     }
 
     /**
-     * Add names based on labels to property shapes.
-     *
-     * @param model
+     * Return the head of an RDF list, and add its statements to a list.
      */
-    public static void addSHACLNames(Model model) {
-        model.listStatements(null, ShapeUtils.path, (RDFNode) null).forEach(t1 -> {
-            Resource s = t1.getSubject();
-            Resource o = t1.getObject().asResource();
-            model.listObjectsOfProperty(o, RDFS.label).forEach(label -> {
-                model.add(s, ShapeUtils.name, label);
-            });
-        });
+    private static Node list(List<Node> members, List<Triple> statements) {
+        Node head = RDF.nil.asNode();
+        for (int i = members.size() - 1; i >= 0; i--) {
+            Node cell = NodeFactory.createBlankNode();
+            statements.add(Triple.create(cell, RDF.first.asNode(), members.get(i)));
+            statements.add(Triple.create(cell, RDF.rest.asNode(), head));
+            head = cell;
+        }
+        return head;
     }
 
-    private static void applyOrder(List<Resource> props) {
-        Collections.sort(props, new Comparator<Resource>() {
-            @Override
-            public int compare(Resource prop1, Resource prop2) {
-                // Check required
-                Statement s1 = prop1.getProperty(ShapeUtils.minCount);
-                int maxCount1 = s1 != null ? s1.getObject().asLiteral().getInt() : 0;
-                Statement s2 = prop2.getProperty(ShapeUtils.minCount);
-                int maxCount2 = s2 != null ? s2.getObject().asLiteral().getInt() : 0;
-                if(maxCount1 == 0 && maxCount2 == 1){
-                    return 1;
-                } else if(maxCount1 == 1 && maxCount2 == 0){
-                    return -1;
-                }
+    /**
+     * Return the shapes of the alternatives of a sh:or list, each with a
+     * single constraint, and add their statements to a list.
+     */
+    private static List<Node> alternatives(Property predicate, List<Node> values, List<Triple> statements) {
+        List<Node> alternatives = new ArrayList<>();
+        values.forEach(value -> {
+            Node alternative = NodeFactory.createBlankNode();
+            statements.add(Triple.create(alternative, predicate.asNode(), value));
+            alternatives.add(alternative);
+        });
+        return alternatives;
+    }
 
-                RDFNode p1 = prop1.getProperty(ShapeUtils.path).getObject();
-                RDFNode p2 = prop2.getProperty(ShapeUtils.path).getObject();
+    private static void applyOrder(List<Shape.PropertyShape> props, OntologyIndex index) {
+        // Required properties first, then by the property hierarchy
+        props.sort(Comparator.comparing((Shape.PropertyShape prop) -> !isRequired(prop))
+                .thenComparing(prop -> index.getSortKey(prop.path())));
+    }
 
-                return p1.toString().compareTo(p2.toString());
-            };
-        });
-        int order = 1;
-        for(Resource p: props){
-            p.addProperty(ShapeUtils.order, ResourceFactory.createTypedLiteral(order));
-            order++;
-        }
+    private static boolean isRequired(Shape.PropertyShape prop) {
+        return prop.minCount() != null && PropertyConstraint.intValue(prop.minCount()) > 0;
     }
 }
 
@@ -0,0 +1,150 @@
+package se.liu.semweb.t4v;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.jena.rdf.model.Model;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that "goal" mode infers the same classes as the default mode.
+ */
+public class GoalInferenceTest {
+    static private final String prefixes = """
+            @prefix : <http://example.org/> .
+            @prefix owl: <http://www.w3.org/2002/07/owl#> .
+            @prefix rdfs: <http://www.w3.org/2000/01/rdf-schema#> .
+            @prefix xsd: <http://www.w3.org/2001/XMLSchema#> .
+            """;
+
+    /**
+     * Assert that both modes infer the same classes for every target.
+     */
+    static private void assertSameTypes(String schema, String data, String... targets) {
+        SchemaCache.Entry entry = SchemaCache.prepare(InferenceEngine.read(prefixes + schema));
+        Model dataModel = InferenceEngine.read(prefixes + data);
+        for (String target : targets) {
+            String uri = "http://example.org/" + target;
+            TreeSet<String> full = new TreeSet<>(InferenceEngine.getInferredClasses(dataModel, entry, uri, null));
+            TreeSet<String> goal = new TreeSet<>(InferenceEngine.getInferredClasses(dataModel, entry, uri, "goal"));
+            assertEquals(full, goal, target);
+        }
+    }
+
+    @Test
+    public void minCardinality() {
+        String schema = """
+                :owner a owl:ObjectProperty .
+                :Owned owl:equivalentClass [ a owl:Restriction ; owl:onProperty :owner ; owl:minCardinality 1 ] .
+                """;
+        assertSameTypes(schema, ":x :owner :y .", "x", "y");
+
+        SchemaCache.Entry entry = SchemaCache.prepare(InferenceEngine.read(prefixes + schema));
+        List<String> types = InferenceEngine.getInferredClasses(InferenceEngine.read(prefixes + ":x :owner :y ."),
+                entry, "http://example.org/x", "goal");
+        assertTrue(types.contains("http://example.org/Owned"), types.toString());
+    }
+
+    @Test
+    public void someValuesFromDatatype() {
+        String schema = """
+                :age a owl:DatatypeProperty .
+                :Aged owl:equivalentClass [ a owl:Restriction ; owl:onProperty :age ; owl:someValuesFrom xsd:integer ] .
+                """;
+        assertSameTypes(schema, ":x :age 42 . :y :age \"old\" .", "x", "y");
+    }
+
+    @Test
+    public void hasValueBothWays() {
+        String schema = """
+                :color a owl:ObjectProperty ; rdfs:domain :Colored .
+                :Red owl:equivalentClass [ a owl:Restriction ; owl:onProperty :color ; owl:hasValue :red ] .
+                """;
+        assertSameTypes(schema, ":x a :Red . :y :color :red .", "x", "y", "red");
+    }
+
+    @Test
+    public void allValuesFromFunctional() {
+        String schema = """
+                :pet a owl:ObjectProperty , owl:FunctionalProperty .
+                :DogOwner owl:equivalentClass [ a owl:Restriction ; owl:onProperty :pet ; owl:allValuesFrom :Dog ] .
+                """;
+        assertSameTypes(schema, ":x :pet :rex . :rex a :Dog . :y :pet :tom .", "x", "y", "rex");
+    }
+
+    @Test
+    public void allValuesFromMaxCardinality() {
+        String schema = """
+                :pet a owl:ObjectProperty .
+                :DogOwner owl:equivalentClass [ a owl:Restriction ; owl:onProperty :pet ; owl:allValuesFrom :Dog ] .
+                :OnePet rdfs:subClassOf [ a owl:Restriction ; owl:onProperty :pet ; owl:maxCardinality 1 ] .
+                """;
+        assertFalse(GoalInference.covers(SchemaCache.prepare(InferenceEngine.read(prefixes + schema)).getSchema()));
+        assertSameTypes(schema, ":x a :OnePet ; :pet :rex . :rex a :Dog .", "x", "rex");
+    }
+
+    @Test
+    public void hierarchiesAndProperties() {
+        String schema = """
+                :Employee rdfs:subClassOf :Person .
+                :hasOwner a owl:ObjectProperty ; rdfs:range :Person ; owl:inverseOf :owns .
+                :owns rdfs:domain :Owner .
+                :ancestor a owl:TransitiveProperty ; rdfs:domain :Person .
+                :parent rdfs:subPropertyOf :ancestor .
+                :Pet owl:equivalentClass [ a owl:Restriction ; owl:onProperty :hasOwner ; owl:someValuesFrom :Person ] .
+                """;
+        String data = """
+                :rex :hasOwner :bob . :bob a :Employee .
+                :a :parent :b . :b :parent :c .
+                """;
+        assertSameTypes(schema, data, "rex", "bob", "a", "b", "c");
+    }
+
+    @Test
+    public void schemaStatementsInData() {
+        String schema = ":Employee rdfs:subClassOf :Person . :worksFor a owl:ObjectProperty .";
+        String data = ":x :worksFor :acme . :worksFor rdfs:domain :Employee .";
+        assertSameTypes(schema, data, "x");
+    }
+
+    @Test
+    public void typeResolverInParallel() {
+        String schema = """
+                :ancestor a owl:TransitiveProperty ; rdfs:domain :Person .
+                :Pet owl:equivalentClass [ a owl:Restriction ; owl:onProperty :hasOwner ; owl:someValuesFrom :Person ] .
+                :hasOwner a owl:ObjectProperty .
+                """;
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            data.append(":p" + i + " :ancestor :p" + (i + 1) + " . :pet" + i + " :hasOwner :p" + i + " .\n");
+        }
+        Message message = new Message();
+        message.setSchema(prefixes + schema);
+        message.setData(prefixes + data);
+        InferenceEngine.TypeResolver full = InferenceEngine.getTypeResolver(message);
+        message.setMode("goal");
+        InferenceEngine.TypeResolver goal = InferenceEngine.getTypeResolver(message);
+
+        List<String> targets = goal.getSubjects();
+        Map<String, TreeSet<String>> types = new ConcurrentHashMap<>();
+        targets.parallelStream().forEach(target -> types.put(target, new TreeSet<>(goal.getTypes(target))));
+        for (String target : targets) {
+            assertEquals(new TreeSet<>(full.getTypes(target)), types.get(target), target);
+        }
+    }
+
+    @Test
+    public void unknownMode() {
+        SchemaCache.Entry entry = SchemaCache.prepare(InferenceEngine.read(prefixes + ":A a owl:Class ."));
+        Model data = InferenceEngine.read(prefixes + ":x a :A .");
+        assertThrows(IllegalArgumentException.class,
+                () -> InferenceEngine.getInferredClasses(data, entry, "http://example.org/x", "bogus"));
+    }
+}
@@ -0,0 +1,75 @@
+package se.liu.semweb.t4v;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.apache.jena.atlas.web.TypedInputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Checks that the mirror keeps a bounded number of documents.
+ */
+public class OntologyMirrorTest {
+    @Test
+    public void evictsLeastRecentlyRead(@TempDir Path dir) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] body = ("<" + exchange.getRequestURI() + "> a <urn:Document> .").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/turtle");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        try {
+            String base = "http://localhost:" + server.getAddress().getPort() + "/";
+            OntologyMirror mirror = new OntologyMirror(dir, null, false, 2);
+            read(mirror, base + "a");
+            read(mirror, base + "b");
+            // Read again, so that b is the least recently read
+            read(mirror, base + "a");
+            read(mirror, base + "c");
+            assertEquals(2, count(dir));
+
+            // a and c are still mirrored, b is not
+            OntologyMirror offline = new OntologyMirror(dir, null, true, 2);
+            assertNotNull(offline.open(base + "a"));
+            assertNotNull(offline.open(base + "c"));
+            assertNull(offline.open(base + "b"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    static private void read(OntologyMirror mirror, String url) throws IOException {
+        try (TypedInputStream in = mirror.open(url)) {
+            assertNotNull(in, url);
+            in.readAllBytes();
+        }
+        // Reads within the resolution of file times would tie
+        try {
+            Thread.sleep(20);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static private long count(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".properties")).count();
+        }
+    }
+}
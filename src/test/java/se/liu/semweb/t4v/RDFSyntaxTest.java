@@ -0,0 +1,36 @@
+package se.liu.semweb.t4v;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.apache.jena.riot.Lang;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the syntax sniffed from the beginning of inputs.
+ */
+public class RDFSyntaxTest {
+    @Test
+    public void turtleAndNTriples() {
+        assertEquals(Lang.TURTLE, RDFSyntax.sniff("<urn:a> <urn:p> <urn:b> ."));
+        assertEquals(Lang.TURTLE, RDFSyntax.sniff("<a> <p> <b> ."));
+        assertEquals(Lang.TURTLE, RDFSyntax.sniff("<a>\t<p> \"x\" ."));
+        assertEquals(Lang.TURTLE, RDFSyntax.sniff("# comment\n<http://example.org/a> a <http://example.org/A> ."));
+        assertEquals(Lang.TURTLE, RDFSyntax.sniff("@prefix : <http://example.org/> ."));
+    }
+
+    @Test
+    public void rdfXml() {
+        assertEquals(Lang.RDFXML, RDFSyntax.sniff("<?xml version=\"1.0\"?>\n<rdf:RDF/>"));
+        assertEquals(Lang.RDFXML, RDFSyntax.sniff("<!-- comment -->\n<rdf:RDF/>"));
+        assertEquals(Lang.RDFXML,
+                RDFSyntax.sniff("<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"/>"));
+        assertEquals(Lang.RDFXML, RDFSyntax.sniff("<rdf:RDF\n    xml:base = \"http://example.org/\">"));
+    }
+
+    @Test
+    public void json() {
+        assertEquals(Lang.JSONLD, RDFSyntax.sniff("{ \"@context\": {} }"));
+        assertEquals(Lang.RDFJSON,
+                RDFSyntax.sniff("{ \"urn:a\": { \"urn:p\": [ { \"type\": \"uri\", \"value\": \"urn:b\" } ] } }"));
+    }
+}
@@ -0,0 +1,54 @@
+package se.liu.semweb.t4v;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that concurrent requests for a schema prepare it once.
+ */
+public class SchemaCacheTest {
+    static private final String schema = """
+            @prefix : <http://example.org/> .
+            @prefix rdfs: <http://www.w3.org/2000/01/rdf-schema#> .
+            :Employee rdfs:subClassOf :Person .
+            """;
+
+    @Test
+    public void concurrentMisses() throws Exception {
+        SchemaCache.clear();
+        String key = SchemaCache.key(schema);
+        AtomicInteger loads = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<SchemaCache.Entry>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> SchemaCache.get(key, () -> {
+                    loads.incrementAndGet();
+                    try {
+                        // Long enough for the others to miss as well
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return InferenceEngine.read(schema);
+                })));
+            }
+            SchemaCache.Entry first = futures.get(0).get();
+            for (Future<SchemaCache.Entry> future : futures) {
+                assertSame(first, future.get());
+            }
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package se.liu.semweb.t4v;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jena.riot.Lang;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that clients of the SHACL cache do not wait for each other.
+ */
+public class ShaclCacheTest {
+    static private final String ontology = """
+            @prefix : <http://example.org/> .
+            @prefix owl: <http://www.w3.org/2002/07/owl#> .
+            @prefix rdfs: <http://www.w3.org/2000/01/rdf-schema#> .
+            :Person a owl:Class ; rdfs:subClassOf [ a owl:Restriction ; owl:onProperty :name ;
+                    owl:minCardinality 1 ] .
+            :name a owl:DatatypeProperty ; rdfs:domain :Person .
+            """;
+
+    /**
+     * Stream that blocks its first write until released.
+     */
+    static private class StalledOutputStream extends OutputStream {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    @Test
+    public void stalledClient(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("ontology.ttl");
+        Files.writeString(file, ontology);
+        String url = file.toUri().toString();
+        ShaclCache.clear();
+
+        StalledOutputStream stalled = new StalledOutputStream();
+        Thread first = new Thread(() -> {
+            try {
+                ShaclCache.write(url, null, true, Lang.TURTLE, Server.turtleType, out -> out, stalled);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        first.start();
+        try {
+            assertTrue(stalled.writing.await(30, TimeUnit.SECONDS));
+            // Served while the first client does not read its response
+            ShaclCache.Entry entry = assertTimeoutPreemptively(Duration.ofSeconds(30),
+                    () -> ShaclCache.get(url, null, true, Lang.TURTLE, Server.turtleType, out -> out));
+            ShaclCache.Entry cached = assertTimeoutPreemptively(Duration.ofSeconds(30),
+                    () -> ShaclCache.getIfPresent(url, null, true, Server.turtleType));
+            assertNotNull(cached);
+            assertArrayEquals(entry.getBody(), cached.getBody());
+        } finally {
+            stalled.release.countDown();
+            first.join();
+        }
+    }
+}
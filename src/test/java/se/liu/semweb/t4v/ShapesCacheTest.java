@@ -0,0 +1,90 @@
+package se.liu.semweb.t4v;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.shacl.ShaclValidator;
+import org.apache.jena.shacl.ValidationReport;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks validation against the shapes generated from an ontology.
+ */
+public class ShapesCacheTest {
+    static private final String prefixes = """
+            @prefix : <http://example.org/> .
+            @prefix owl: <http://www.w3.org/2002/07/owl#> .
+            @prefix rdfs: <http://www.w3.org/2000/01/rdf-schema#> .
+            """;
+
+    static private final String ontology = """
+            :Person a owl:Class .
+            :Employee a owl:Class ; rdfs:subClassOf :Person .
+            :Company a owl:Class .
+            :Dog a owl:Class ; rdfs:subClassOf [ a owl:Restriction ; owl:onProperty :hasOwner ;
+                    owl:maxCardinality 1 ] .
+            :hasOwner a owl:ObjectProperty ; rdfs:domain :Dog ; rdfs:range :Person .
+            """;
+
+    @Test
+    public void subClassInstances(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("ontology.ttl");
+        Files.writeString(file, prefixes + ontology);
+        ShapesCache.Entry shapes = ShapesCache.forOntology(file.toUri().toString(), null);
+
+        ValidationReport employee = validate(shapes, ":rex a :Dog ; :hasOwner :bob . :bob a :Employee .");
+        assertTrue(employee.conforms(), employee.getEntries().toString());
+        ValidationReport company = validate(shapes, ":rex a :Dog ; :hasOwner :acme . :acme a :Company .");
+        assertFalse(company.conforms());
+    }
+
+    @Test
+    public void importedHierarchy(@TempDir Path dir) throws IOException {
+        Path people = dir.resolve("people.ttl");
+        Files.writeString(people, prefixes + ":Employee a owl:Class ; rdfs:subClassOf :Person . :Person a owl:Class .");
+        Path file = dir.resolve("dogs.ttl");
+        Files.writeString(file, prefixes + "<> a owl:Ontology ; owl:imports <" + people.toUri() + "> .\n"
+                + ontology.replace(":Employee a owl:Class ; rdfs:subClassOf :Person .", ""));
+        for (String mode : new String[] { null, "hierarchy" }) {
+            ShapesCache.Entry shapes = ShapesCache.forOntology(file.toUri().toString(), mode);
+            ValidationReport employee = validate(shapes, ":rex a :Dog ; :hasOwner :bob . :bob a :Employee .");
+            assertTrue(employee.conforms(), "mode " + mode + ": " + employee.getEntries());
+        }
+    }
+
+    @Test
+    public void concurrentMisses(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("ontology.ttl");
+        Files.writeString(file, prefixes + ontology);
+        String url = file.toUri().toString();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<ShapesCache.Entry>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> ShapesCache.forOntology(url, null)));
+            }
+            for (Future<ShapesCache.Entry> future : futures) {
+                assertSame(futures.get(0).get(), future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    static private ValidationReport validate(ShapesCache.Entry shapes, String data) {
+        Graph graph = shapes.withHierarchy(InferenceEngine.read(prefixes + data).getGraph());
+        return ShaclValidator.get().validate(shapes.getShapes(), graph);
+    }
+}
@@ -0,0 +1,98 @@
+package se.liu.semweb.t4v.owl2shacl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that converting an edited ontology incrementally gives the same
+ * shapes as converting it from scratch.
+ */
+public class ConversionTest {
+    static private final String prefixes = """
+            @prefix : <http://example.org/> .
+            @prefix owl: <http://www.w3.org/2002/07/owl#> .
+            @prefix rdfs: <http://www.w3.org/2000/01/rdf-schema#> .
+            @prefix xsd: <http://www.w3.org/2001/XMLSchema#> .
+            """;
+
+    static private final String ontology = """
+            :Person a owl:Class .
+            :Employee a owl:Class ; rdfs:subClassOf :Person .
+            :Car a owl:Class ; rdfs:subClassOf [ a owl:Restriction ; owl:onProperty :hasPart ;
+                    owl:someValuesFrom :Wheel ] , [ a owl:Restriction ; owl:onProperty :owner ;
+                    owl:maxCardinality 1 ] .
+            :Wheel a owl:Class .
+            :Engine a owl:Class .
+            :hasPart a owl:ObjectProperty .
+            :owner a owl:ObjectProperty ; rdfs:domain :Car ; rdfs:range :Person .
+            :name a owl:DatatypeProperty ; rdfs:domain :Person ; rdfs:range xsd:string .
+            """;
+
+    @Test
+    public void editedAxiom() {
+        assertIncremental(ontology, ontology.replace("rdfs:range :Person", "rdfs:range :Employee"));
+    }
+
+    @Test
+    public void editedRestriction() {
+        assertIncremental(ontology, ontology.replace("owl:someValuesFrom :Wheel", "owl:someValuesFrom :Engine"));
+        assertIncremental(ontology, ontology.replace("owl:maxCardinality 1", "owl:maxCardinality 2"));
+    }
+
+    @Test
+    public void unchanged() {
+        Conversion first = convert(ontology, null, null, OutputStream.nullOutputStream());
+        Conversion second = convert(ontology, null, first, OutputStream.nullOutputStream());
+        assertEquals(0, second.getChanges().getGenerated());
+    }
+
+    /**
+     * Assert that converting the edited ontology incrementally from the
+     * conversion of the original gives shapes isomorphic to a fresh
+     * conversion, in both modes, and that the edit changes the shapes.
+     */
+    static private void assertIncremental(String original, String edited) {
+        assertNotEquals(original, edited);
+        for (String mode : new String[] { null, "hierarchy" }) {
+            ByteArrayOutputStream before = new ByteArrayOutputStream();
+            Conversion previous = convert(original, mode, null, before);
+            ByteArrayOutputStream incremental = new ByteArrayOutputStream();
+            Conversion conversion = convert(edited, mode, previous, incremental);
+            ByteArrayOutputStream fresh = new ByteArrayOutputStream();
+            OWL2SHACL.owl2shacl(read(edited), mode, true, Lang.NTRIPLES, fresh);
+
+            assertFalse(parse(fresh).isIsomorphicWith(parse(before)), "mode " + mode);
+            assertTrue(parse(fresh).isIsomorphicWith(parse(incremental)), "mode " + mode);
+            assertTrue(conversion.getChanges().getGenerated() > 0, "mode " + mode);
+        }
+    }
+
+    static private Conversion convert(String ontology, String mode, Conversion previous, OutputStream out) {
+        return OWL2SHACL.owl2shacl(read(ontology), mode, true, Lang.NTRIPLES, previous, out);
+    }
+
+    static private Model read(String ontology) {
+        Model model = ModelFactory.createDefaultModel();
+        RDFDataMgr.read(model, new StringReader(prefixes + ontology), null, Lang.TURTLE);
+        return model;
+    }
+
+    static private Model parse(ByteArrayOutputStream out) {
+        Model model = ModelFactory.createDefaultModel();
+        RDFDataMgr.read(model, new ByteArrayInputStream(out.toByteArray()), Lang.NTRIPLES);
+        return model;
+    }
+}
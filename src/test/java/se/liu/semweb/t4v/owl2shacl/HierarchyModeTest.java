@@ -0,0 +1,132 @@
+package se.liu.semweb.t4v.owl2shacl;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the "hierarchy" mode generates the same shapes as the reasoner
+ * on ontologies with the constructs that {@link HierarchyClosure} emulates.
+ */
+public class HierarchyModeTest {
+    static private final String prefixes = """
+            @prefix : <http://example.org/> .
+            @prefix owl: <http://www.w3.org/2002/07/owl#> .
+            @prefix rdfs: <http://www.w3.org/2000/01/rdf-schema#> .
+            @prefix xsd: <http://www.w3.org/2001/XMLSchema#> .
+            """;
+
+    @Test
+    public void inverses() {
+        assertSameShapes("""
+                :Person a owl:Class .
+                :Dog a owl:Class ; rdfs:subClassOf [ a owl:Restriction ; owl:onProperty :hasOwner ;
+                        owl:maxCardinality 1 ] .
+                :hasOwner a owl:ObjectProperty ; rdfs:domain :Dog ; rdfs:range :Person ; owl:inverseOf :owns .
+                :owns a owl:ObjectProperty .
+                :Owner a owl:Class ; rdfs:subClassOf [ a owl:Restriction ; owl:onProperty :owns ;
+                        owl:minCardinality 1 ] .
+                :walks a owl:ObjectProperty ; rdfs:subPropertyOf :owns .
+                :walkedBy a owl:ObjectProperty ; owl:inverseOf :walks ; rdfs:range :Walker .
+                """);
+    }
+
+    @Test
+    public void equivalences() {
+        assertSameShapes("""
+                :Person a owl:Class ; owl:equivalentClass :Human ; rdfs:subClassOf [ a owl:Restriction ;
+                        owl:onProperty :age ; owl:someValuesFrom xsd:integer ] .
+                :Human a owl:Class ; rdfs:subClassOf [ a owl:Restriction ; owl:onProperty :name ;
+                        owl:minCardinality 1 ] .
+                :Employee a owl:Class ; owl:equivalentClass [ owl:intersectionOf ( :Person :Worker ) ] .
+                :Worker a owl:Class ; rdfs:subClassOf [ a owl:Restriction ; owl:onProperty :employer ;
+                        owl:someValuesFrom :Company ] .
+                :Agent a owl:Class ; owl:equivalentClass [ owl:unionOf ( :Person :Company ) ] .
+                :Company a owl:Class .
+                :name a owl:DatatypeProperty ; rdfs:domain :Agent ; rdfs:range xsd:string .
+                :label a owl:DatatypeProperty ; owl:equivalentProperty :name .
+                :employer a owl:ObjectProperty ; rdfs:range :Company .
+                :age a owl:DatatypeProperty .
+                """);
+    }
+
+    @Test
+    public void cycles() {
+        assertSameShapes("""
+                :A a owl:Class ; rdfs:subClassOf :B .
+                :B a owl:Class ; rdfs:subClassOf :C .
+                :C a owl:Class ; rdfs:subClassOf :A , [ a owl:Restriction ; owl:onProperty :p ;
+                        owl:allValuesFrom :D ] .
+                :D a owl:Class ; rdfs:subClassOf :D .
+                :p a owl:ObjectProperty ; rdfs:subPropertyOf :q ; rdfs:domain :A .
+                :q a owl:ObjectProperty ; rdfs:subPropertyOf :p ; rdfs:range :D .
+                """);
+    }
+
+    @Test
+    public void cardinalities() {
+        assertSameShapes("""
+                :Car a owl:Class ; rdfs:subClassOf
+                        [ a owl:Restriction ; owl:onProperty :owner ; owl:cardinality 1 ] ,
+                        [ a owl:Restriction ; owl:onProperty :wheel ; owl:minCardinality 4 ] ,
+                        [ a owl:Restriction ; owl:onProperty :wheel ; owl:maxCardinality 4 ] ,
+                        [ a owl:Restriction ; owl:onProperty :engine ; owl:minCardinality 1 ] ,
+                        [ a owl:Restriction ; owl:onProperty :plate ; owl:maxCardinality 1 ] ,
+                        [ a owl:Restriction ; owl:onProperty :plate ; owl:someValuesFrom :Plate ] ,
+                        [ a owl:Restriction ; owl:onProperty :driver ; owl:allValuesFrom :Person ] .
+                :Broken a owl:Class ; rdfs:subClassOf
+                        [ a owl:Restriction ; owl:onProperty :wheel ; owl:minCardinality 3 ] ,
+                        [ a owl:Restriction ; owl:onProperty :wheel ; owl:maxCardinality 2 ] .
+                :Single a owl:Class ; rdfs:subClassOf
+                        [ a owl:Restriction ; owl:onProperty :vin ; owl:maxCardinality 1 ] .
+                :Registered a owl:Class ; owl:equivalentClass
+                        [ a owl:Restriction ; owl:onProperty :vin ; owl:minCardinality "1"^^xsd:nonNegativeInteger ] .
+                :owner a owl:ObjectProperty , owl:FunctionalProperty ; rdfs:range :Person .
+                :vin a owl:DatatypeProperty , owl:FunctionalProperty ; rdfs:range xsd:string .
+                :wheel a owl:ObjectProperty ; rdfs:range :Wheel .
+                :engine a owl:ObjectProperty ; rdfs:range :Engine .
+                :plate a owl:ObjectProperty .
+                :driver a owl:ObjectProperty ; rdfs:range :Person .
+                :hasOwner a owl:ObjectProperty , owl:InverseFunctionalProperty ; owl:inverseOf :owns .
+                :Person a owl:Class ; rdfs:subClassOf [ a owl:Restriction ; owl:onProperty :owns ;
+                        owl:maxCardinality 1 ] .
+                """);
+    }
+
+    /**
+     * Assert that both modes generate isomorphic shapes from an ontology.
+     */
+    static private void assertSameShapes(String ontology) {
+        Model reasoner = convert(ontology, null);
+        Model hierarchy = convert(ontology, "hierarchy");
+        assertTrue(reasoner.size() > 0);
+        assertTrue(reasoner.isIsomorphicWith(hierarchy),
+                () -> "Only with the reasoner:\n" + write(reasoner.difference(hierarchy))
+                        + "Only in hierarchy mode:\n" + write(hierarchy.difference(reasoner)));
+    }
+
+    static private String write(Model model) {
+        StringWriter out = new StringWriter();
+        RDFDataMgr.write(out, model, Lang.TURTLE);
+        return out.toString();
+    }
+
+    static private Model convert(String ontology, String mode) {
+        Model base = ModelFactory.createDefaultModel();
+        RDFDataMgr.read(base, new StringReader(prefixes + ontology), null, Lang.TURTLE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OWL2SHACL.owl2shacl(base, mode, true, Lang.NTRIPLES, out);
+        Model shapes = ModelFactory.createDefaultModel();
+        RDFDataMgr.read(shapes, new ByteArrayInputStream(out.toByteArray()), Lang.NTRIPLES);
+        return shapes;
+    }
+}
@@ -0,0 +1,64 @@
+package se.liu.semweb.t4v.owl2shacl;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.vocabulary.OWL2;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.jupiter.api.Test;
+
+import se.liu.semweb.t4v.owl2shacl.utils.ShapeUtils;
+
+/**
+ * Checks the shapes generated from small ontologies.
+ */
+public class OWL2SHACLTest {
+    static private final String prefixes = """
+            @prefix : <http://example.org/> .
+            @prefix owl: <http://www.w3.org/2002/07/owl#> .
+            @prefix rdfs: <http://www.w3.org/2000/01/rdf-schema#> .
+            @prefix xsd: <http://www.w3.org/2001/XMLSchema#> .
+            """;
+
+    @Test
+    public void rangesAgreeWithHierarchyMode() {
+        String ontology = """
+                :Person a owl:Class ; rdfs:subClassOf [ a owl:Restriction ; owl:onProperty :name ;
+                        owl:minCardinality 1 ] .
+                :Employee a owl:Class ; rdfs:subClassOf :Person .
+                :Company a owl:Class .
+                :Car a owl:Class ; rdfs:subClassOf [ a owl:Restriction ; owl:onProperty :wheels ;
+                        owl:minCardinality 3 ] .
+                :owner a owl:ObjectProperty ; rdfs:domain :Car ; rdfs:range :Employee .
+                :driver a owl:ObjectProperty ; rdfs:subPropertyOf :owner ; rdfs:domain :Car ; rdfs:range :Person .
+                :employer a owl:ObjectProperty ; rdfs:domain :Employee ; rdfs:range :Company .
+                :name a owl:DatatypeProperty ; rdfs:domain :Person ; rdfs:range xsd:string .
+                :wheels a owl:DatatypeProperty .
+                """;
+        Model reasoner = convert(ontology, null);
+        Model hierarchy = convert(ontology, "hierarchy");
+
+        assertFalse(reasoner.contains(null, ShapeUtils.class_, OWL2.Thing));
+        assertFalse(reasoner.contains(null, ShapeUtils.class_, RDFS.Resource));
+        assertTrue(reasoner.contains(null, ShapeUtils.class_, reasoner.createResource("http://example.org/Employee")));
+        assertTrue(reasoner.isIsomorphicWith(hierarchy));
+    }
+
+    static private Model convert(String ontology, String mode) {
+        Model base = ModelFactory.createDefaultModel();
+        RDFDataMgr.read(base, new StringReader(prefixes + ontology), null, Lang.TURTLE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OWL2SHACL.owl2shacl(base, mode, true, Lang.NTRIPLES, out);
+        Model shapes = ModelFactory.createDefaultModel();
+        RDFDataMgr.read(shapes, new ByteArrayInputStream(out.toByteArray()), Lang.NTRIPLES);
+        return shapes;
+    }
+}